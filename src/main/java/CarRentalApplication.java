@@ -1,17 +1,124 @@
+import agents.Deployment;
+import agents.MasterAgent;
+import utils.RunMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class CarRentalApplication {
     public static void main(String[] args) {
+        String deploymentFile = System.getProperty("crs.deployment");
+        String containerName = null;
+        boolean headless = false;
+        for (String arg : args) {
+            if (arg.startsWith("--deployment=")) {
+                deploymentFile = arg.substring("--deployment=".length());
+            } else if (arg.startsWith("--container=")) {
+                containerName = arg.substring("--container=".length());
+            } else if (arg.equals(RunMode.HEADLESS_ARG)) {
+                headless = true;
+            }
+        }
+        headless = headless || RunMode.isHeadless(null);
+
+        Deployment deployment;
+        try {
+            deployment = deploymentFile != null ? Deployment.load(deploymentFile) : Deployment.current();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        Deployment.setCurrent(deployment);
+
         // Initialize JADE runtime
         jade.core.Runtime rt = jade.core.Runtime.instance();
 
+        if (containerName != null) {
+            // Launched by the main JVM for a "process" container
+            startPeripheralJvm(rt, deployment, containerName, headless);
+            return;
+        }
+
         // Create main container
         jade.core.Profile p = new jade.core.ProfileImpl();
+        if (deployment.getPath() != null) {
+            p.setParameter(jade.core.Profile.MAIN_HOST, deployment.getMainHost());
+            p.setParameter(jade.core.Profile.MAIN_PORT, String.valueOf(deployment.getMainPort()));
+        }
         jade.wrapper.AgentContainer mainContainer = rt.createMainContainer(p);
 
+        // Peripheral containers, before the master places agents in them
+        List<Process> children = new ArrayList<>();
+        for (String name : deployment.getContainers()) {
+            if (deployment.getMode(name) == Deployment.Mode.IN_JVM) {
+                Deployment.registerLocalContainer(name, rt.createAgentContainer(peripheralProfile(deployment, name)));
+            } else {
+                try {
+                    children.add(launchJvm(deployment, name, headless));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> children.forEach(Process::destroy)));
+
         try {
             // Start master agent
-            mainContainer.createNewAgent("MasterAgent", "agents.MasterAgent", null).start();
+            mainContainer.createNewAgent("MasterAgent", "agents.MasterAgent",
+                    headless ? new Object[]{RunMode.HEADLESS_ARG} : null).start();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private static jade.core.Profile peripheralProfile(Deployment deployment, String name) {
+        jade.core.Profile p = new jade.core.ProfileImpl();
+        p.setParameter(jade.core.Profile.MAIN, "false");
+        p.setParameter(jade.core.Profile.MAIN_HOST, deployment.getMainHost());
+        p.setParameter(jade.core.Profile.MAIN_PORT, String.valueOf(deployment.getMainPort()));
+        p.setParameter(jade.core.Profile.CONTAINER_NAME, name);
+        return p;
+    }
+
+    // Same java binary and classpath; crs.* settings are passed on so every JVM agrees
+    private static Process launchJvm(Deployment deployment, String name, boolean headless) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String jvmArg : deployment.getJvmArgs(name).split("\\s+")) {
+            if (!jvmArg.isEmpty()) {
+                command.add(jvmArg);
+            }
+        }
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("crs.")) {
+                command.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(CarRentalApplication.class.getName());
+        command.add("--deployment=" + deployment.getPath());
+        command.add("--container=" + name);
+        if (headless) {
+            command.add(RunMode.HEADLESS_ARG);
+        }
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static void startPeripheralJvm(jade.core.Runtime rt, Deployment deployment, String name,
+                                           boolean headless) {
+        jade.wrapper.AgentContainer container = rt.createAgentContainer(peripheralProfile(deployment, name));
+        for (Deployment.AgentSpec spec : MasterAgent.plannedAgents(deployment, headless)) {
+            if (!name.equals(deployment.containerOf(spec.getName()))) {
+                continue;
+            }
+            try {
+                container.createNewAgent(spec.getName(), spec.getClassName(), spec.getArgs()).start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
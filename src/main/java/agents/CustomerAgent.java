@@ -1,19 +1,48 @@
 package agents;
 
+import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.lang.acl.ACLMessage;
 import gui.CustomerGUI;
+import messaging.Commands;
+import messaging.RequestClient;
+import models.Customer;
+import utils.RunMode;
+
+import java.util.concurrent.CompletableFuture;
 
 public class CustomerAgent extends Agent {
-    private CustomerGUI gui;
+    private static final String GATEWAY_AGENT = "GatewayAgent";
+    private static final String REGISTRATION_AGENT = "RegistrationAgent";
+
+    private volatile CustomerGUI gui;
+    private boolean headless;
+    private RequestClient client;
+    private PaymentRouter paymentRouter;
 
     @Override
     protected void setup() {
-        gui = new CustomerGUI(this);
-        gui.setVisible(true);
+        long startNanos = System.nanoTime();
+        headless = RunMode.isHeadless(getArguments());
+        client = new RequestClient(this);
+        paymentRouter = new PaymentRouter();
+
+        if (!headless) {
+            attachGui();
+        }
 
         addBehaviour(new CustomerBehaviour());
+
+        RunMode.logStartup(getLocalName(), startNanos, headless);
+    }
+
+    // Creates the window on first use; a headless agent can get one later this way
+    public synchronized void attachGui() {
+        if (gui == null) {
+            gui = new CustomerGUI(this);
+        }
+        gui.setVisible(true);
     }
 
     private class CustomerBehaviour extends CyclicBehaviour {
@@ -21,8 +50,10 @@ public class CustomerAgent extends Agent {
         public void action() {
             ACLMessage msg = myAgent.receive();
             if (msg != null) {
-                // Process message
-                processMessage(msg);
+                // Replies to our own requests complete their futures
+                if (!client.onReply(msg)) {
+                    processMessage(msg);
+                }
             } else {
                 block();
             }
@@ -41,4 +72,56 @@ public class CustomerAgent extends Agent {
             }
         }
     }
-}
\ No newline at end of file
+
+    // Client API: every call returns at once; the future completes with the service agent's
+    // reply. idempotencyKey may be null.
+    public CompletableFuture<ACLMessage> processPayment(int bookingId, double amount, String idempotencyKey) {
+        return client.request(paymentRouter.route(bookingId),
+                Commands.PAYMENT_CODEC.create(Commands.PROCESS_PAYMENT, amount, bookingId, idempotencyKey));
+    }
+
+    // Routed by booking like the payment itself, so they run after it on the same shard.
+    // bookingId may be null; the request then goes to the payment's shard, unordered.
+    public CompletableFuture<ACLMessage> verifyPayment(int paymentId, Integer bookingId) {
+        return client.request(paymentRouter.route(paymentId, bookingId),
+                Commands.PAYMENT_CODEC.create(Commands.VERIFY_PAYMENT, paymentId, bookingId));
+    }
+
+    public CompletableFuture<ACLMessage> refundPayment(int paymentId, Integer bookingId, String idempotencyKey) {
+        return client.request(paymentRouter.route(paymentId, bookingId),
+                Commands.PAYMENT_CODEC.create(Commands.PROCESS_REFUND, paymentId, idempotencyKey, bookingId));
+    }
+
+    // A null gatewayId lets the gateway agent pick the gateway
+    public CompletableFuture<ACLMessage> chargeGateway(double amount, String gatewayId, String idempotencyKey) {
+        return client.request(new AID(GATEWAY_AGENT, AID.ISLOCALNAME),
+                Commands.GATEWAY_CODEC.create(Commands.PROCESS_PAYMENT, amount,
+                        gatewayId != null ? gatewayId : Commands.ANY_GATEWAY, idempotencyKey));
+    }
+
+    public CompletableFuture<ACLMessage> refundGatewayTransaction(String transactionId, String idempotencyKey) {
+        return client.request(new AID(GATEWAY_AGENT, AID.ISLOCALNAME),
+                Commands.GATEWAY_CODEC.create(Commands.REFUND_PAYMENT, transactionId, idempotencyKey));
+    }
+
+    public CompletableFuture<ACLMessage> registerCustomer(Customer customer) {
+        return client.request(new AID(REGISTRATION_AGENT, AID.ISLOCALNAME),
+                Commands.REGISTRATION_CODEC.create(Commands.REGISTER_CUSTOMER, customer.getName(),
+                        customer.getEmail(), customer.getPhone(), customer.getPassword()));
+    }
+
+    public CompletableFuture<ACLMessage> updateCustomer(Customer customer) {
+        return client.request(new AID(REGISTRATION_AGENT, AID.ISLOCALNAME),
+                Commands.REGISTRATION_CODEC.create(Commands.UPDATE_CUSTOMER, customer.getId(),
+                        customer.getName(), customer.getPhone()));
+    }
+
+    public CompletableFuture<ACLMessage> deregisterCustomer(int customerId) {
+        return client.request(new AID(REGISTRATION_AGENT, AID.ISLOCALNAME),
+                Commands.REGISTRATION_CODEC.create(Commands.DEREGISTER_CUSTOMER, customerId));
+    }
+
+    public RequestClient getClient() {
+        return client;
+    }
+}
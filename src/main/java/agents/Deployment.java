@@ -0,0 +1,127 @@
+package agents;
+
+import jade.wrapper.ContainerController;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Deployment descriptor: which peripheral containers to start, whether each runs in the main
+// JVM or in its own JVM on this host, and which container each agent is placed in. Read from a
+// properties file given with --deployment=<file> or -Dcrs.deployment=<file>; without one every
+// agent runs in the main container, as before.
+//
+//   main.host=localhost
+//   main.port=1099
+//   containers=payments,gateway
+//   # in-jvm or process
+//   container.payments.mode=in-jvm
+//   container.gateway.mode=process
+//   container.gateway.jvmArgs=-Xmx512m
+//   agent.PaymentAgent-1.container=payments
+//   agent.GatewayAgent.container=gateway
+//   # Optional load generator, see LoadGeneratorAgent
+//   loadgen.requests=20000
+//
+// Comments go on their own lines: java.util.Properties keeps a '#' after a value as part of it.
+public class Deployment {
+    public static final String MAIN = "main";
+
+    public enum Mode { IN_JVM, PROCESS }
+
+    // One agent to start: its name, class and arguments
+    public static class AgentSpec {
+        private final String name;
+        private final String className;
+        private final Object[] args;
+
+        public AgentSpec(String name, String className, Object[] args) {
+            this.name = name;
+            this.className = className;
+            this.args = args;
+        }
+
+        public String getName() { return name; }
+        public String getClassName() { return className; }
+        public Object[] getArgs() { return args; }
+    }
+
+    private static volatile Deployment current = new Deployment(new Properties(), null);
+    // In-JVM containers, so the master can create agents in them
+    private static final Map<String, ContainerController> localContainers = new ConcurrentHashMap<>();
+
+    private final Properties props;
+    private final String path;
+    private final List<String> containers = new ArrayList<>();
+
+    private Deployment(Properties props, String path) {
+        this.props = props;
+        this.path = path;
+        for (String name : props.getProperty("containers", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                containers.add(name.trim());
+            }
+        }
+        // Catch typos in placements before any agent is started
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("agent.") && key.endsWith(".container")) {
+                String container = props.getProperty(key).trim();
+                if (!MAIN.equals(container) && !containers.contains(container)) {
+                    throw new IllegalArgumentException(key + " names undeclared container '" + container + "'");
+                }
+            }
+        }
+    }
+
+    public static Deployment load(String path) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(path)) {
+            props.load(in);
+        }
+        return new Deployment(props, path);
+    }
+
+    public static Deployment current() { return current; }
+    public static void setCurrent(Deployment deployment) { current = deployment; }
+
+    public static void registerLocalContainer(String name, ContainerController container) {
+        localContainers.put(name, container);
+    }
+
+    public static ContainerController getLocalContainer(String name) {
+        return localContainers.get(name);
+    }
+
+    public String getPath() { return path; }
+    public String getMainHost() { return props.getProperty("main.host", "localhost"); }
+    public int getMainPort() { return getInt("main.port", 1099); }
+    public List<String> getContainers() { return Collections.unmodifiableList(containers); }
+
+    public Mode getMode(String container) {
+        return "process".equalsIgnoreCase(props.getProperty("container." + container + ".mode", "in-jvm"))
+                ? Mode.PROCESS : Mode.IN_JVM;
+    }
+
+    public String getJvmArgs(String container) {
+        return props.getProperty("container." + container + ".jvmArgs", "").trim();
+    }
+
+    public String containerOf(String agentName) {
+        return props.getProperty("agent." + agentName + ".container", MAIN).trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = props.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    public String getString(String key, String defaultValue) {
+        return props.getProperty(key, defaultValue).trim();
+    }
+}
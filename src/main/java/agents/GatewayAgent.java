@@ -2,215 +2,568 @@ package agents;
 
 import jade.core.Agent;
 import jade.core.AID;
-import jade.core.behaviours.CyclicBehaviour;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 import gui.GatewayGUI;
+import database.ConnectionPool;
 import database.DatabaseConnection;
+import database.GatewayLogAppender;
+import database.GatewayLogRetention;
+import database.GroupCommitWriter;
+import database.IdempotencyStore;
+import messaging.CommandDispatcher;
+import messaging.Commands;
+import messaging.IdempotentHandler;
+import messaging.Message;
 import models.Transaction;
 import models.PaymentGateway;
-
+import utils.CircuitBreaker;
+import utils.DaemonThreadFactory;
+import utils.GatewayClient;
+import utils.GatewayConstants;
+import utils.GatewaySelector;
+import utils.Histogram;
+import utils.PaymentCipher;
+import utils.PropertyKeyProvider;
+import utils.RetryBudget;
+import utils.RetryPolicy;
+import utils.RunMode;
+import utils.SimulatedGatewayClient;
+import utils.TtlCache;
+
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import javax.crypto.Cipher;
-import javax.crypto.spec.SecretKeySpec;
-import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
 
 public class GatewayAgent extends Agent {
-    private GatewayGUI gui;
-    private Connection dbConnection;
-    private static final String ENCRYPTION_KEY = "YourEncryptionKey"; // In production, use secure key management
+    private volatile GatewayGUI gui;
+    private boolean headless;
+    private ConnectionPool connectionPool;
+    private GroupCommitWriter<Transaction> transactionWriter;
+    private GatewayLogAppender logAppender;
+    private GatewayLogRetention logRetention;
+    private GatewayStatusMonitor statusMonitor;
+    private CommandDispatcher dispatcher;
+    private IdempotencyStore idempotencyStore;
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> probeLatencies = new ConcurrentHashMap<>();
+    private final GatewaySelector gatewaySelector = new GatewaySelector(this::getCircuitBreaker);
+    private final TtlCache<String, Transaction> transactionCache = new TtlCache<>("transactionCache",
+            GatewayConstants.TRANSACTION_CACHE_SIZE, GatewayConstants.TRANSACTION_CACHE_TTL_MS);
+    // Keys come from the environment, see PropertyKeyProvider
+    private final PaymentCipher paymentCipher = new PaymentCipher(new PropertyKeyProvider());
+    // No real gateway integration yet; the simulator is configured with crs.gateway.sim.*
+    private final GatewayClient gatewayClient = new SimulatedGatewayClient();
+    private final RetryPolicy retryPolicy = new RetryPolicy(GatewayConstants.MAX_RETRY_ATTEMPTS,
+            GatewayConstants.RETRY_BASE_DELAY_MS, GatewayConstants.RETRY_MAX_DELAY_MS);
+    private final RetryBudget retryBudget = new RetryBudget("gateway", GatewayConstants.RETRY_BUDGET_RATIO,
+            GatewayConstants.RETRY_BUDGET_RESERVE);
+    private GatewayAuthorizer authorizer;
 
     @Override
     protected void setup() {
-        try {
-            dbConnection = DatabaseConnection.getConnection();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        long startNanos = System.nanoTime();
+        headless = RunMode.isHeadless(getArguments());
+
+        connectionPool = DatabaseConnection.createPool("gateway");
+        idempotencyStore = new IdempotencyStore("gateway", connectionPool);
+        transactionWriter = new GroupCommitWriter<>("transactions", connectionPool,
+                "INSERT INTO transactions (transaction_id, amount, gateway_id, status) VALUES (?, ?, ?, ?)",
+                GatewayAgent::bindTransaction,
+                DatabaseConnection.GROUP_COMMIT_WINDOW_MS, DatabaseConnection.GROUP_COMMIT_MAX_BATCH);
+        logAppender = new GatewayLogAppender(connectionPool,
+                GatewayConstants.LOG_BUFFER_CAPACITY, GatewayConstants.LOG_BATCH_SIZE,
+                GatewayConstants.LOG_FLUSH_INTERVAL_MS,
+                GatewayLogAppender.OverflowPolicy.valueOf(GatewayConstants.LOG_OVERFLOW_POLICY.toUpperCase()),
+                GatewayConstants.LOG_SAMPLE_RATE);
+        // Started late so it does not compete with startup
+        logRetention = new GatewayLogRetention(connectionPool, GatewayConstants.LOG_RETENTION_DAYS,
+                GatewayConstants.LOG_RETENTION_CHUNK_SIZE, GatewayConstants.LOG_RETENTION_ROWS_PER_SECOND,
+                GatewayConstants.LOG_RETENTION_INTERVAL_MS, GatewayConstants.LOG_RETENTION_MAX_RUN_MS);
+        logRetention.start(GatewayConstants.LOG_RETENTION_INITIAL_DELAY_MS);
+        authorizer = new GatewayAuthorizer(gatewayClient, gatewaySelector, this::getCircuitBreaker,
+                retryPolicy, retryBudget, this::logGatewayEvent,
+                GatewayConstants.HEDGE_ENABLED ? GatewayConstants.HEDGE_THREADS : 0,
+                GatewayConstants.HEDGE_PERCENTILE, GatewayConstants.HEDGE_MIN_SAMPLES,
+                GatewayConstants.HEDGE_VOID_THREADS);
+
+        if (!headless) {
+            attachGui();
         }
 
-        gui = new GatewayGUI(this);
+        // Add behaviors
+        dispatcher = new CommandDispatcher(this, Commands.GATEWAY_CODEC)
+                .on(Commands.PROCESS_PAYMENT, new IdempotentHandler(idempotencyStore, this::handlePaymentProcess))
+                .on(Commands.PROCESS_PAYMENT_BATCH, this::handlePaymentBatch)
+                .on(Commands.REFUND_PAYMENT, new IdempotentHandler(idempotencyStore, this::handleRefundProcess))
+                .on(Commands.DRAIN_GATEWAY, this::handleDrainGateway)
+                .on(Commands.RESUME_GATEWAY, this::handleResumeGateway)
+                .on(Commands.ATTACH_GUI, this::handleAttachGui);
+        addBehaviour(dispatcher);
+
+        // Health checks run on their own scheduler so they never hold the agent thread
+        statusMonitor = new GatewayStatusMonitor(GatewayConstants.GATEWAY_CHECK_INTERVAL,
+                GatewayConstants.GATEWAY_CHECK_JITTER);
+        statusMonitor.start();
+
+        RunMode.logStartup(getLocalName(), startNanos, headless);
+    }
+
+    // Creates the window on first use; a headless agent can get one later this way
+    public synchronized void attachGui() {
+        if (gui == null) {
+            gui = new GatewayGUI(this);
+        }
         gui.setVisible(true);
+    }
 
-        // Add behaviors
-        addBehaviour(new PaymentRequestHandler());
-        addBehaviour(new GatewayStatusMonitor());
+    // Command handlers, invoked by the dispatcher
+    // PAYMENT_PENDING: the gateway may or may not have approved it; the authorization is being
+    // voided, and a retry with the same idempotency key gets this reply again
+    private void handlePaymentProcess(Message request, ACLMessage reply) {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(request.getDouble("amount"));
+        transaction.setGatewayId(selectGateway(request.getString("gatewayId")));
+
+        GatewayClient.Outcome outcome = authorizePayment(transaction, paymentKey(request));
+        reply.setPerformative(ACLMessage.INFORM);
+        if (outcome == GatewayClient.Outcome.OK && saveTransaction(transaction)) {
+            reply.setContent("PAYMENT_SUCCESS:" + transaction.getTransactionId());
+        } else if (outcome == GatewayClient.Outcome.DECLINED) {
+            reply.setContent("PAYMENT_DECLINED");
+        } else if (outcome == GatewayClient.Outcome.TIMEOUT) {
+            reply.setContent("PAYMENT_PENDING:" + transaction.getTransactionId());
+        } else {
+            reply.setContent("PAYMENT_FAILED");
+        }
     }
 
-    // Behavior to handle payment requests
-    private class PaymentRequestHandler extends CyclicBehaviour {
-        @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
-            ACLMessage msg = myAgent.receive(mt);
-
-            if (msg != null) {
-                String content = msg.getContent();
-                ACLMessage reply = msg.createReply();
-
-                if (content.startsWith("PROCESS_PAYMENT")) {
-                    handlePaymentProcess(content, reply);
-                } else if (content.startsWith("REFUND_PAYMENT")) {
-                    handleRefundProcess(content, reply);
+    // Partial failure: each item gets its transaction id, or FAILED, in the reply
+    private void handlePaymentBatch(Message request, ACLMessage reply) {
+        List<Transaction> transactions = new ArrayList<>(request.getItems().size());
+        for (Message item : request.getItems()) {
+            Transaction transaction = new Transaction();
+            transaction.setAmount(item.getDouble("amount"));
+            transaction.setGatewayId(selectGateway(item.getString("gatewayId")));
+            transactions.add(transaction);
+        }
+
+        boolean[] saved = processPaymentsThroughGateway(transactions);
+        List<String> results = new ArrayList<>(saved.length);
+        for (int i = 0; i < saved.length; i++) {
+            results.add(saved[i] ? transactions.get(i).getTransactionId() : Commands.ITEM_FAILED);
+        }
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(Commands.formatBatchResult(results));
+    }
+
+    private void handleRefundProcess(Message request, ACLMessage reply) {
+        GatewayClient.Outcome outcome = processRefundThroughGateway(request.getString("transactionId"));
+        reply.setPerformative(ACLMessage.INFORM);
+        if (outcome == GatewayClient.Outcome.OK) {
+            reply.setContent("REFUND_SUCCESS");
+        } else {
+            reply.setContent(outcome == GatewayClient.Outcome.DECLINED ? "REFUND_DECLINED" : "REFUND_FAILED");
+        }
+    }
+
+    // Replies with the number of calls still in flight; repeat until it reaches 0
+    private void handleDrainGateway(Message request, ACLMessage reply) {
+        String gatewayId = request.getString("gatewayId");
+        if (!setGatewayStatus(gatewayId, GatewayConstants.STATUS_DRAINING)) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: unknown gateway " + gatewayId);
+            return;
+        }
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("GATEWAY_DRAINING:" + gatewaySelector.getInFlight(gatewayId));
+    }
+
+    // Back to ACTIVE; the next health check marks it INACTIVE again if it is down
+    private void handleResumeGateway(Message request, ACLMessage reply) {
+        String gatewayId = request.getString("gatewayId");
+        if (!setGatewayStatus(gatewayId, GatewayConstants.STATUS_ACTIVE)) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: unknown gateway " + gatewayId);
+            return;
+        }
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("GATEWAY_RESUMED");
+    }
+
+    private void handleAttachGui(Message request, ACLMessage reply) {
+        if (!RunMode.canShowGui()) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: no display available");
+            return;
+        }
+        SwingUtilities.invokeLater(this::attachGui);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("GUI_ATTACHED");
+    }
+
+    // Monitors gateway status on a scheduled executor. Each tick schedules the next one
+    // (interval +/- jitter) and starts a round on the worker, unless the last round is still
+    // running, in which case the tick is skipped.
+    private class GatewayStatusMonitor {
+        private final long intervalMs;
+        private final long jitterMs;
+        private final ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gateway-monitor-scheduler"));
+        private final ExecutorService worker =
+                Executors.newSingleThreadExecutor(new DaemonThreadFactory("gateway-monitor"));
+        private final ExecutorService probes = Executors.newFixedThreadPool(
+                GatewayConstants.GATEWAY_PROBE_THREADS, new DaemonThreadFactory("gateway-probe"));
+        private final AtomicBoolean roundInProgress = new AtomicBoolean();
+        private final AtomicLong completedRounds = new AtomicLong();
+        private final AtomicLong skippedRounds = new AtomicLong();
+        private volatile long lastRoundMillis;
+
+        GatewayStatusMonitor(long intervalMs, long jitterMs) {
+            this.intervalMs = intervalMs;
+            this.jitterMs = Math.min(jitterMs, intervalMs / 2);
+        }
+
+        // First round runs almost immediately; jitter keeps several agents from probing in lockstep
+        void start() {
+            // Statuses for the selector before the first round
+            worker.execute(() -> {
+                List<PaymentGateway> gateways = getAllGateways();
+                for (PaymentGateway gateway : gateways) {
+                    gatewaySelector.updateStatus(gateway.getId(), gateway.getStatus());
                 }
+                // An empty list may just be a failed query; the first round tries again
+                if (!gateways.isEmpty()) {
+                    gatewaySelector.markLoaded();
+                }
+            });
+            long initialDelay = jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0;
+            scheduler.schedule(this::tick, initialDelay, TimeUnit.MILLISECONDS);
+        }
 
-                myAgent.send(reply);
-            } else {
-                block();
-            }
+        void stop() {
+            scheduler.shutdownNow();
+            worker.shutdownNow();
+            probes.shutdownNow();
         }
 
-        private void handlePaymentProcess(String content, ACLMessage reply) {
+        private void scheduleNextTick() {
+            long jitter = jitterMs > 0 ? ThreadLocalRandom.current().nextLong(-jitterMs, jitterMs + 1) : 0;
             try {
-                String[] parts = content.split(":");
-                Transaction transaction = new Transaction();
-                transaction.setAmount(Double.parseDouble(parts[1]));
-                transaction.setGatewayId(parts[2]);
-
-                boolean success = processPaymentThroughGateway(transaction);
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "PAYMENT_SUCCESS:" + transaction.getTransactionId()
-                        : "PAYMENT_FAILED");
-            } catch (Exception e) {
-                reply.setPerformative(ACLMessage.FAILURE);
-                reply.setContent("ERROR: " + e.getMessage());
+                scheduler.schedule(this::tick, intervalMs + jitter, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Monitor stopped
             }
         }
 
-        private void handleRefundProcess(String content, ACLMessage reply) {
+        private void tick() {
+            scheduleNextTick();
+            if (!roundInProgress.compareAndSet(false, true)) {
+                skippedRounds.incrementAndGet();
+                return;
+            }
             try {
-                String[] parts = content.split(":");
-                String transactionId = parts[1];
-                boolean success = processRefundThroughGateway(transactionId);
-
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "REFUND_SUCCESS" : "REFUND_FAILED");
-            } catch (Exception e) {
-                reply.setPerformative(ACLMessage.FAILURE);
-                reply.setContent("ERROR: " + e.getMessage());
+                worker.execute(this::runRound);
+            } catch (RejectedExecutionException e) {
+                roundInProgress.set(false);
             }
         }
-    }
 
-    // Behavior to monitor gateway status
-    private class GatewayStatusMonitor extends CyclicBehaviour {
-        @Override
-        public void action() {
+        private void runRound() {
+            long start = System.currentTimeMillis();
             try {
                 List<PaymentGateway> gateways = getAllGateways();
+
+                // Probe every gateway at once so one slow gateway cannot delay the others
+                List<Future<Boolean>> results = new ArrayList<>(gateways.size());
                 for (PaymentGateway gateway : gateways) {
-                    boolean isActive = checkGatewayStatus(gateway);
-                    updateGatewayStatus(gateway.getId(), isActive);
+                    results.add(probes.submit(() -> probeGateway(gateway)));
+                }
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GatewayConstants.GATEWAY_PROBE_TIMEOUT);
+                for (int i = 0; i < gateways.size(); i++) {
+                    PaymentGateway gateway = gateways.get(i);
+                    boolean healthy = awaitProbe(results.get(i), deadline);
+                    // A probe is a call like any other: while the circuit is open its result is
+                    // ignored, and after the open period it can be the half-open trial
+                    CircuitBreaker breaker = getCircuitBreaker(gateway.getId());
+                    if (breaker.allowRequest()) {
+                        if (healthy) {
+                            breaker.recordSuccess();
+                        } else {
+                            breaker.recordFailure();
+                        }
+                    }
+                    // Operator statuses (DRAINING, MAINTENANCE) are left alone
+                    if (isHealthStatus(gateway.getStatus())) {
+                        String status = healthy && !breaker.isOpen()
+                                ? GatewayConstants.STATUS_ACTIVE : GatewayConstants.STATUS_INACTIVE;
+                        updateGatewayStatus(gateway.getId(), status);
+                        gatewaySelector.updateStatus(gateway.getId(), status);
+                    } else {
+                        gatewaySelector.updateStatus(gateway.getId(), gateway.getStatus());
+                    }
+                }
+                if (!gateways.isEmpty()) {
+                    gatewaySelector.markLoaded();
+                }
+                GatewayGUI window = gui;
+                if (window != null) {
+                    SwingUtilities.invokeLater(window::updateGatewayStatus);
                 }
-                gui.updateGatewayStatus();
-                Thread.sleep(30000); // Check every 30 seconds
             } catch (Exception e) {
                 e.printStackTrace();
+            } finally {
+                lastRoundMillis = System.currentTimeMillis() - start;
+                completedRounds.incrementAndGet();
+                roundInProgress.set(false);
             }
         }
+
+        private boolean probeGateway(PaymentGateway gateway) {
+            long start = System.nanoTime();
+            try {
+                return checkGatewayStatus(gateway);
+            } finally {
+                getProbeLatency(gateway.getId()).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+
+        private boolean awaitProbe(Future<Boolean> result, long deadline) {
+            try {
+                return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // The interrupted probe records its own latency
+                result.cancel(true);
+                return false;
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("GatewayStatusMonitor{intervalMs=%d, jitterMs=%d, completed=%d, skipped=%d, "
+                            + "lastRoundMs=%d, running=%s}",
+                    intervalMs, jitterMs, completedRounds.get(), skippedRounds.get(), lastRoundMillis,
+                    roundInProgress.get());
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker(String gatewayId) {
+        return circuitBreakers.computeIfAbsent(gatewayId, id -> new CircuitBreaker(id,
+                GatewayConstants.BREAKER_FAILURE_THRESHOLD, GatewayConstants.BREAKER_OPEN_DURATION));
+    }
+
+    // ANY_GATEWAY lets the selector choose; a named gateway that cannot take payments right
+    // now is replaced by the selector's choice. Null when no gateway is available.
+    private String selectGateway(String requestedId) {
+        return gatewaySelector.select(Commands.ANY_GATEWAY.equals(requestedId) ? null : requestedId);
+    }
+
+    private static boolean isHealthStatus(String status) {
+        return status == null || GatewayConstants.STATUS_ACTIVE.equals(status)
+                || GatewayConstants.STATUS_INACTIVE.equals(status);
+    }
+
+    public Histogram getProbeLatency(String gatewayId) {
+        return probeLatencies.computeIfAbsent(gatewayId, id -> new Histogram("probeLatencyMs." + id));
     }
 
     // Payment Gateway Operations
-    private boolean processPaymentThroughGateway(Transaction transaction) {
+    // Authorizes every item with its gateway, then stores the approved ones in one JDBC batch
+    private boolean[] processPaymentsThroughGateway(List<Transaction> transactions) {
+        boolean[] results = new boolean[transactions.size()];
+        List<Transaction> approved = new ArrayList<>(transactions.size());
+        List<Integer> positions = new ArrayList<>(transactions.size());
+        for (int i = 0; i < transactions.size(); i++) {
+            if (authorizePayment(transactions.get(i), generateTransactionId()) == GatewayClient.Outcome.OK) {
+                approved.add(transactions.get(i));
+                positions.add(i);
+            }
+        }
+        if (approved.isEmpty()) {
+            return results;
+        }
+
+        boolean[] saved = saveTransactions(approved);
+        for (int i = 0; i < saved.length; i++) {
+            results[positions.get(i)] = saved[i];
+        }
+        return results;
+    }
+
+    // The key is the gateway's idempotency key and becomes the transaction id. TIMEOUT means
+    // the outcome is unknown and the authorization is being voided (see GatewayAuthorizer).
+    private GatewayClient.Outcome authorizePayment(Transaction transaction, String key) {
+        // No gateway could take it, see selectGateway
+        if (transaction.getGatewayId() == null) {
+            return GatewayClient.Outcome.ERROR;
+        }
+
         try {
-            // In a real implementation, this would communicate with the actual payment gateway
             String encryptedData = encryptPaymentData(transaction);
-            // Simulate gateway communication
-            boolean gatewayResponse = simulateGatewayResponse();
-
-            if (gatewayResponse) {
-                transaction.setTransactionId(generateTransactionId());
-                saveTransaction(transaction);
-                return true;
+            GatewayAuthorizer.Attempt result = authorizer.authorize(transaction.getGatewayId(), key,
+                    encryptedData, transaction.getAmount());
+            transaction.setGatewayId(result.gatewayId);
+            if (result.outcome == GatewayClient.Outcome.OK) {
+                transaction.setTransactionId(key);
+                logGatewayEvent(result.gatewayId, GatewayConstants.EVENT_TRANSACTION,
+                        "PAYMENT " + key + " " + transaction.getAmount());
+                return result.outcome;
             }
-            return false;
+            if (result.outcome == GatewayClient.Outcome.DECLINED) {
+                transaction.setStatus(GatewayConstants.TRANSACTION_DECLINED);
+            } else if (result.outcome == GatewayClient.Outcome.TIMEOUT) {
+                transaction.setTransactionId(key);
+            }
+            logGatewayEvent(result.gatewayId, GatewayConstants.EVENT_ERROR,
+                    "PAYMENT_" + result.outcome + " " + key + " " + transaction.getAmount());
+            return result.outcome;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return GatewayClient.Outcome.ERROR;
         }
     }
 
-    private boolean processRefundThroughGateway(String transactionId) {
+    // Derived from the client's idempotency key, so every retry of a payment (even one that
+    // took over after a crash) sends the gateway the same key; random without one
+    private static String paymentKey(Message request) {
+        if (!request.has(Commands.IDEMPOTENCY_KEY)) {
+            return generateTransactionId();
+        }
+        String seed = Commands.PROCESS_PAYMENT + ":" + request.getString(Commands.IDEMPOTENCY_KEY);
+        return UUID.nameUUIDFromBytes(seed.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    // ERROR also covers an unknown transaction and local failures
+    private GatewayClient.Outcome processRefundThroughGateway(String transactionId) {
         try {
             // Retrieve original transaction
             Transaction originalTransaction = getTransaction(transactionId);
-            if (originalTransaction == null) return false;
+            if (originalTransaction == null) return GatewayClient.Outcome.ERROR;
 
-            // In a real implementation, this would communicate with the actual payment gateway
-            boolean gatewayResponse = simulateGatewayResponse();
+            // Refunds go to the original gateway, even one that is draining
+            String gatewayId = originalTransaction.getGatewayId();
+            GatewayClient.Outcome outcome = authorizer.refund(gatewayId, transactionId);
 
-            if (gatewayResponse) {
+            if (outcome == GatewayClient.Outcome.OK) {
                 updateTransactionStatus(transactionId, "REFUNDED");
-                return true;
+                logGatewayEvent(gatewayId, GatewayConstants.EVENT_TRANSACTION, "REFUND " + transactionId);
+                return outcome;
             }
-            return false;
+            logGatewayEvent(gatewayId, GatewayConstants.EVENT_ERROR, "REFUND_" + outcome + " " + transactionId);
+            return outcome;
         } catch (Exception e) {
             e.printStackTrace();
-            return false;
+            return GatewayClient.Outcome.ERROR;
         }
     }
 
     // Helper Methods
     private String encryptPaymentData(Transaction transaction) {
         try {
-            SecretKeySpec secretKey = new SecretKeySpec(ENCRYPTION_KEY.getBytes(), "AES");
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-
-            String data = transaction.toString();
-            byte[] encryptedBytes = cipher.doFinal(data.getBytes());
-            return Base64.getEncoder().encodeToString(encryptedBytes);
+            return paymentCipher.encrypt(transaction.toString());
         } catch (Exception e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    private boolean simulateGatewayResponse() {
-        // Simulate gateway response with 95% success rate
-        return Math.random() > 0.05;
-    }
-
-    private String generateTransactionId() {
+    private static String generateTransactionId() {
         return UUID.randomUUID().toString();
     }
 
     private boolean checkGatewayStatus(PaymentGateway gateway) {
-        // In real implementation, would check actual gateway status
-        return simulateGatewayResponse();
+        return gatewayClient.checkStatus(gateway.getId()) == GatewayClient.Outcome.OK;
     }
 
     // Database Operations
-    private void saveTransaction(Transaction transaction) {
-        try {
-            String query = "INSERT INTO transactions (transaction_id, amount, gateway_id, status) VALUES (?, ?, ?, ?)";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
-            stmt.setString(1, transaction.getTransactionId());
-            stmt.setDouble(2, transaction.getAmount());
-            stmt.setString(3, transaction.getGatewayId());
-            stmt.setString(4, "COMPLETED");
-            stmt.executeUpdate();
+    // Queued for the next group commit; returns once the row is durable
+    private boolean saveTransaction(Transaction transaction) {
+        transaction.setStatus("COMPLETED");
+        boolean saved = transactionWriter.write(transaction);
+        if (saved) {
+            // Refunds overwhelmingly target recent payments, so keep them in memory
+            transactionCache.put(transaction.getTransactionId(), transaction);
+        }
+        return saved;
+    }
+
+    private boolean[] saveTransactions(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            transaction.setStatus("COMPLETED");
+        }
+
+        boolean[] saved;
+        try (Connection conn = connectionPool.getConnection()) {
+            saved = transactionWriter.writeBatch(conn, transactions);
         } catch (SQLException e) {
             e.printStackTrace();
+            return new boolean[transactions.size()];
         }
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i]) {
+                transactionCache.put(transactions.get(i).getTransactionId(), transactions.get(i));
+            }
+        }
+        return saved;
+    }
+
+    private static void bindTransaction(PreparedStatement stmt, Transaction transaction) throws SQLException {
+        stmt.setString(1, transaction.getTransactionId());
+        stmt.setDouble(2, transaction.getAmount());
+        stmt.setString(3, transaction.getGatewayId());
+        stmt.setString(4, transaction.getStatus());
     }
 
+    // Read-through: recent transactions are served from the cache
     private Transaction getTransaction(String transactionId) {
-        try {
-            String query = "SELECT * FROM transactions WHERE transaction_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        Transaction cached = transactionCache.get(transactionId);
+        if (cached != null) {
+            return cached;
+        }
+
+        Transaction transaction = loadTransaction(transactionId);
+        if (transaction != null) {
+            transactionCache.put(transactionId, transaction);
+        }
+        return transaction;
+    }
+
+    private Transaction loadTransaction(String transactionId) {
+        String query = "SELECT * FROM transactions WHERE transaction_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, transactionId);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                Transaction transaction = new Transaction();
-                transaction.setTransactionId(rs.getString("transaction_id"));
-                transaction.setAmount(rs.getDouble("amount"));
-                transaction.setGatewayId(rs.getString("gateway_id"));
-                transaction.setStatus(rs.getString("status"));
-                return transaction;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    Transaction transaction = new Transaction();
+                    transaction.setTransactionId(rs.getString("transaction_id"));
+                    transaction.setAmount(rs.getDouble("amount"));
+                    transaction.setGatewayId(rs.getString("gateway_id"));
+                    transaction.setStatus(rs.getString("status"));
+                    return transaction;
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -219,23 +572,39 @@ public class GatewayAgent extends Agent {
     }
 
     private void updateTransactionStatus(String transactionId, String status) {
-        try {
-            String query = "UPDATE transactions SET status = ? WHERE transaction_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "UPDATE transactions SET status = ? WHERE transaction_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, status);
             stmt.setString(2, transactionId);
             stmt.executeUpdate();
+            refreshCachedStatus(transactionId, status);
         } catch (SQLException e) {
+            // The row may or may not have changed, so stop trusting the cached copy
+            transactionCache.invalidate(transactionId);
             e.printStackTrace();
         }
     }
 
+    // Cached transactions are shared with readers, so replace them rather than mutate
+    private void refreshCachedStatus(String transactionId, String status) {
+        transactionCache.update(transactionId, cached -> {
+            Transaction updated = new Transaction();
+            updated.setTransactionId(cached.getTransactionId());
+            updated.setAmount(cached.getAmount());
+            updated.setGatewayId(cached.getGatewayId());
+            updated.setTimestamp(cached.getTimestamp());
+            updated.setStatus(status);
+            return updated;
+        });
+    }
+
     private List<PaymentGateway> getAllGateways() {
         List<PaymentGateway> gateways = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM payment_gateways";
-            Statement stmt = dbConnection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
+        String query = "SELECT * FROM payment_gateways";
+        try (Connection conn = connectionPool.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
 
             while (rs.next()) {
                 PaymentGateway gateway = new PaymentGateway();
@@ -250,47 +619,61 @@ public class GatewayAgent extends Agent {
         return gateways;
     }
 
-    private void updateGatewayStatus(String gatewayId, boolean isActive) {
-        try {
-            String query = "UPDATE payment_gateways SET status = ? WHERE gateway_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
-            stmt.setString(1, isActive ? "ACTIVE" : "INACTIVE");
+    // Health-check result; does not overwrite a status an operator set in the meantime
+    private void updateGatewayStatus(String gatewayId, String status) {
+        String query = "UPDATE payment_gateways SET status = ? WHERE gateway_id = ? AND status IN (?, ?)";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, status);
             stmt.setString(2, gatewayId);
+            stmt.setString(3, GatewayConstants.STATUS_ACTIVE);
+            stmt.setString(4, GatewayConstants.STATUS_INACTIVE);
             stmt.executeUpdate();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
-    public void logGatewayEvent(String gatewayId, String eventType, String eventData) {
-        try {
-            String query = "INSERT INTO gateway_logs (gateway_id, event_type, event_data) VALUES (?, ?, ?)";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
-            stmt.setString(1, gatewayId);
-            stmt.setString(2, eventType);
-            stmt.setString(3, eventData);
-            stmt.executeUpdate();
+    // Operator status change; takes effect for routing immediately
+    private boolean setGatewayStatus(String gatewayId, String status) {
+        String query = "UPDATE payment_gateways SET status = ? WHERE gateway_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, status);
+            stmt.setString(2, gatewayId);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
         } catch (SQLException e) {
             e.printStackTrace();
+            return false;
         }
+        gatewaySelector.updateStatus(gatewayId, status);
+        logGatewayEvent(gatewayId, GatewayConstants.EVENT_STATUS_CHANGE, status);
+        return true;
+    }
+
+    // Buffered and written in the background; see GatewayLogAppender
+    public void logGatewayEvent(String gatewayId, String eventType, String eventData) {
+        logAppender.append(gatewayId, eventType, eventData);
     }
 
     public List<Transaction> getRecentTransactions(int limit) {
         List<Transaction> transactions = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM transactions ORDER BY created_at DESC LIMIT ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "SELECT * FROM transactions ORDER BY created_at DESC LIMIT ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setInt(1, limit);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                Transaction transaction = new Transaction();
-                transaction.setTransactionId(rs.getString("transaction_id"));
-                transaction.setAmount(rs.getDouble("amount"));
-                transaction.setGatewayId(rs.getString("gateway_id"));
-                transaction.setStatus(rs.getString("status"));
-                transaction.setTimestamp(rs.getTimestamp("created_at").toString());
-                transactions.add(transaction);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Transaction transaction = new Transaction();
+                    transaction.setTransactionId(rs.getString("transaction_id"));
+                    transaction.setAmount(rs.getDouble("amount"));
+                    transaction.setGatewayId(rs.getString("gateway_id"));
+                    transaction.setStatus(rs.getString("status"));
+                    transaction.setTimestamp(rs.getTimestamp("created_at").toString());
+                    transactions.add(transaction);
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -300,20 +683,20 @@ public class GatewayAgent extends Agent {
 
     public List<String> getGatewayLogs(String gatewayId, int limit) {
         List<String> logs = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM gateway_logs WHERE gateway_id = ? ORDER BY created_at DESC LIMIT ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "SELECT * FROM gateway_logs WHERE gateway_id = ? ORDER BY created_at DESC LIMIT ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, gatewayId);
             stmt.setInt(2, limit);
-            ResultSet rs = stmt.executeQuery();
-
-            while (rs.next()) {
-                String logEntry = String.format("[%s] %s: %s",
-                        rs.getTimestamp("created_at"),
-                        rs.getString("event_type"),
-                        rs.getString("event_data")
-                );
-                logs.add(logEntry);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String logEntry = String.format("[%s] %s: %s",
+                            rs.getTimestamp("created_at"),
+                            rs.getString("event_type"),
+                            rs.getString("event_data")
+                    );
+                    logs.add(logEntry);
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -321,15 +704,88 @@ public class GatewayAgent extends Agent {
         return logs;
     }
 
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public CommandDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public GatewaySelector getGatewaySelector() {
+        return gatewaySelector;
+    }
+
+    public GatewayClient getGatewayClient() {
+        return gatewayClient;
+    }
+
+    public PaymentCipher getPaymentCipher() {
+        return paymentCipher;
+    }
+
+    public IdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    public GroupCommitWriter<Transaction> getTransactionWriter() {
+        return transactionWriter;
+    }
+
+    public GatewayLogAppender getLogAppender() {
+        return logAppender;
+    }
+
+    public GatewayLogRetention getLogRetention() {
+        return logRetention;
+    }
+
+    public TtlCache<String, Transaction> getTransactionCache() {
+        return transactionCache;
+    }
+
+    public String getMonitorStats() {
+        return String.valueOf(statusMonitor);
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    public String getRetryStats() {
+        return String.valueOf(authorizer);
+    }
+
     @Override
     protected void takeDown() {
-        try {
-            if (dbConnection != null) {
-                dbConnection.close();
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Drain in-flight handlers before closing what they use
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        // Give pending voids a chance, an authorization left behind is a double charge
+        if (authorizer != null) {
+            authorizer.close();
+        }
+        if (statusMonitor != null) {
+            statusMonitor.stop();
+        }
+        if (logRetention != null) {
+            logRetention.stop();
+        }
+        if (logAppender != null) {
+            logAppender.close();
+        }
+        if (transactionWriter != null) {
+            transactionWriter.close();
+        }
+        if (idempotencyStore != null) {
+            idempotencyStore.close();
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        if (gui != null) {
+            gui.dispose();
         }
-        gui.dispose();
     }
 }
\ No newline at end of file
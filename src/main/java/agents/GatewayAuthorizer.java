@@ -0,0 +1,273 @@
+package agents;
+
+import utils.CircuitBreaker;
+import utils.GatewayClient;
+import utils.GatewayConstants;
+import utils.GatewaySelector;
+import utils.RetryBudget;
+import utils.RetryPolicy;
+import utils.WorkerExecutors;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// The GatewayAgent's calls to external gateways: retries with backoff under a retry budget,
+// hedging, and voids. Every call for one payment carries the same key, the gateway's
+// idempotency key, so no retry can charge twice at one gateway.
+//
+// A TIMEOUT leaves the outcome unknown: the gateway may have approved the call. From then on
+// the payment stays at that gateway (no failover, no hedge), and if no retry settles it the
+// authorization is voided and authorize() reports TIMEOUT, never a plain failure.
+class GatewayAuthorizer {
+    // Where gateway events go (GatewayAgent.logGatewayEvent)
+    interface EventLog {
+        void log(String gatewayId, String eventType, String eventData);
+    }
+
+    // One gateway call and its outcome
+    static class Attempt {
+        final String gatewayId;
+        final GatewayClient.Outcome outcome;
+
+        Attempt(String gatewayId, GatewayClient.Outcome outcome) {
+            this.gatewayId = gatewayId;
+            this.outcome = outcome;
+        }
+    }
+
+    private final GatewayClient client;
+    private final GatewaySelector selector;
+    private final Function<String, CircuitBreaker> breakers;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+    private final EventLog events;
+    private final double hedgePercentile;
+    private final int hedgeMinSamples;
+    // Runs authorizations that may be hedged; null when hedging is off
+    private final ExecutorService hedgeExecutor;
+    private final ExecutorService voidExecutor;
+
+    // Metrics
+    private final AtomicLong retriedCalls = new AtomicLong();
+    private final AtomicLong hedgedCalls = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong unknownOutcomes = new AtomicLong();
+    private final AtomicLong voidedAuthorizations = new AtomicLong();
+
+    // hedgeThreads 0 turns hedging off
+    GatewayAuthorizer(GatewayClient client, GatewaySelector selector, Function<String, CircuitBreaker> breakers,
+                      RetryPolicy retryPolicy, RetryBudget retryBudget, EventLog events,
+                      int hedgeThreads, double hedgePercentile, int hedgeMinSamples, int voidThreads) {
+        this.client = client;
+        this.selector = selector;
+        this.breakers = breakers;
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = retryBudget;
+        this.events = events;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinSamples = hedgeMinSamples;
+        this.hedgeExecutor = hedgeThreads > 0 ? WorkerExecutors.newExecutor("gateway-hedge", hedgeThreads) : null;
+        this.voidExecutor = WorkerExecutors.newExecutor("gateway-void", Math.max(1, voidThreads));
+    }
+
+    // Errors and timeouts are retried while the retry budget allows; after an error the
+    // selector may move the payment to another gateway, unless an earlier call timed out.
+    // Returns the last attempt: OK, DECLINED, ERROR, or TIMEOUT with a void under way.
+    Attempt authorize(String gatewayId, String key, String encryptedData, double amount) {
+        Attempt result;
+        boolean unknown = false;
+        retryBudget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            result = attemptAuthorization(gatewayId, key, encryptedData, amount, !unknown);
+            gatewayId = result.gatewayId;
+            unknown |= result.outcome == GatewayClient.Outcome.TIMEOUT;
+            if (!retryAfter(attempt, result.outcome)) {
+                break;
+            }
+            if (result.outcome == GatewayClient.Outcome.ERROR && !unknown) {
+                String next = selector.select(gatewayId);
+                gatewayId = next != null ? next : gatewayId;
+            }
+        }
+
+        // A retry with the same key gets the gateway's answer for the key, so OK and DECLINED
+        // settle it; an ERROR after a timeout does not
+        if (unknown && !result.outcome.isGatewayHealthy()) {
+            unknownOutcomes.incrementAndGet();
+            voidLater(result.gatewayId, key);
+            return new Attempt(result.gatewayId, GatewayClient.Outcome.TIMEOUT);
+        }
+        return result;
+    }
+
+    // Backs off and returns true if another attempt should follow this outcome
+    private boolean retryAfter(int attempt, GatewayClient.Outcome outcome) {
+        if (!retryPolicy.shouldRetry(attempt, outcome) || !retryBudget.tryWithdraw()) {
+            return false;
+        }
+        retriedCalls.incrementAndGet();
+        return retryPolicy.backoff(attempt);
+    }
+
+    // With hedging on and enough latency history, a call still running after the gateway's
+    // p95 is repeated at a second gateway (charged to the retry budget). The first approval
+    // wins; the other call is voided if it was approved too or might have been (timeout).
+    private Attempt attemptAuthorization(String gatewayId, String key, String encryptedData, double amount,
+                                         boolean mayHedge) {
+        long hedgeAfterMs = hedgeExecutor == null || !mayHedge ? -1
+                : selector.getLatencyPercentile(gatewayId, hedgePercentile, hedgeMinSamples);
+        if (hedgeAfterMs < 0) {
+            return new Attempt(gatewayId, authorizeAt(gatewayId, key, encryptedData, amount));
+        }
+
+        CompletableFuture<Attempt> primary = CompletableFuture.supplyAsync(
+                () -> new Attempt(gatewayId, authorizeAt(gatewayId, key, encryptedData, amount)), hedgeExecutor);
+        try {
+            return primary.get(hedgeAfterMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Slower than usual, hedge below
+        } catch (ExecutionException e) {
+            return new Attempt(gatewayId, GatewayClient.Outcome.ERROR);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return primary.join();
+        }
+
+        String hedgeId = selector.selectExcluding(gatewayId);
+        if (hedgeId == null || !retryBudget.tryWithdraw()) {
+            return primary.join();
+        }
+        hedgedCalls.incrementAndGet();
+        CompletableFuture<Attempt> hedge = CompletableFuture.supplyAsync(
+                () -> new Attempt(hedgeId, authorizeAt(hedgeId, key, encryptedData, amount)), hedgeExecutor);
+
+        // First approval wins; without one the primary's outcome stands
+        CompletableFuture<Attempt> winner = new CompletableFuture<>();
+        primary.thenAccept(attempt -> completeIfApproved(winner, attempt));
+        hedge.thenAccept(attempt -> completeIfApproved(winner, attempt));
+        CompletableFuture.allOf(primary, hedge).thenRun(() -> winner.complete(primary.join()));
+
+        Attempt chosen = winner.join();
+        boolean hedgeWon = chosen.gatewayId.equals(hedgeId);
+        if (hedgeWon) {
+            hedgeWins.incrementAndGet();
+        }
+        (hedgeWon ? primary : hedge).thenAccept(other -> {
+            if (other.outcome == GatewayClient.Outcome.OK || other.outcome == GatewayClient.Outcome.TIMEOUT) {
+                voidLater(other.gatewayId, key);
+            }
+        });
+        return chosen;
+    }
+
+    private static void completeIfApproved(CompletableFuture<Attempt> winner, Attempt attempt) {
+        if (attempt.outcome == GatewayClient.Outcome.OK) {
+            winner.complete(attempt);
+        }
+    }
+
+    // A single authorization call; an open circuit stops it without waiting for the next probe
+    private GatewayClient.Outcome authorizeAt(String gatewayId, String key, String encryptedData, double amount) {
+        CircuitBreaker breaker = breakers.apply(gatewayId);
+        if (!breaker.allowRequest()) {
+            events.log(gatewayId, GatewayConstants.EVENT_ERROR, "PAYMENT_REJECTED circuit open " + amount);
+            return GatewayClient.Outcome.ERROR;
+        }
+
+        GatewayClient.Outcome outcome;
+        try {
+            outcome = callGateway(gatewayId, () -> client.authorize(gatewayId, key, encryptedData, amount));
+        } catch (Exception e) {
+            e.printStackTrace();
+            outcome = GatewayClient.Outcome.ERROR;
+        }
+        if (outcome.isGatewayHealthy()) {
+            breaker.recordSuccess();
+        } else {
+            breaker.recordFailure();
+        }
+        return outcome;
+    }
+
+    // Not on the caller's thread: the void sleeps through its backoffs. While shutting down
+    // it runs here instead, an authorization left behind is a charge nobody recorded.
+    private void voidLater(String gatewayId, String key) {
+        try {
+            voidExecutor.execute(() -> voidAuthorization(gatewayId, key));
+        } catch (RejectedExecutionException e) {
+            voidAuthorization(gatewayId, key);
+        }
+    }
+
+    // Reverses an authorization that lost a hedge or whose outcome is unknown
+    private void voidAuthorization(String gatewayId, String key) {
+        GatewayClient.Outcome outcome = refund(gatewayId, key);
+        if (outcome == GatewayClient.Outcome.OK) {
+            voidedAuthorizations.incrementAndGet();
+            events.log(gatewayId, GatewayConstants.EVENT_TRANSACTION, "VOID " + key);
+        } else {
+            // Needs reconciliation with the gateway
+            events.log(gatewayId, GatewayConstants.EVENT_ERROR, "VOID_" + outcome + " " + key);
+        }
+    }
+
+    // The transaction id is the refund's idempotency key
+    GatewayClient.Outcome refund(String gatewayId, String transactionId) {
+        retryBudget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            GatewayClient.Outcome outcome = callGateway(gatewayId, () -> client.refund(gatewayId, transactionId));
+            if (!retryAfter(attempt, outcome)) {
+                return outcome;
+            }
+        }
+    }
+
+    // Feeds the selector's latency and success-rate averages
+    private GatewayClient.Outcome callGateway(String gatewayId, Supplier<GatewayClient.Outcome> call) {
+        long start = System.nanoTime();
+        GatewayClient.Outcome outcome = GatewayClient.Outcome.ERROR;
+        selector.begin(gatewayId);
+        try {
+            outcome = call.get();
+            return outcome;
+        } finally {
+            selector.end(gatewayId, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    outcome.isGatewayHealthy());
+        }
+    }
+
+    // Gives pending voids a chance to finish, including those of hedge calls still running
+    void close() {
+        try {
+            if (hedgeExecutor != null) {
+                hedgeExecutor.shutdown();
+                hedgeExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            voidExecutor.shutdown();
+            voidExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    long getRetriedCount() { return retriedCalls.get(); }
+    long getHedgedCount() { return hedgedCalls.get(); }
+    long getHedgeWinCount() { return hedgeWins.get(); }
+    long getUnknownOutcomeCount() { return unknownOutcomes.get(); }
+    long getVoidedCount() { return voidedAuthorizations.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("retries=%d, hedged=%d, hedgeWins=%d, unknown=%d, voided=%d, %s",
+                getRetriedCount(), getHedgedCount(), getHedgeWinCount(), getUnknownOutcomeCount(),
+                getVoidedCount(), retryBudget);
+    }
+}
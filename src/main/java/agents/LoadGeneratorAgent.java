@@ -0,0 +1,127 @@
+package agents;
+
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.core.behaviours.WakerBehaviour;
+import jade.lang.acl.ACLMessage;
+import messaging.Commands;
+import messaging.Message;
+import messaging.RequestClient;
+import utils.Histogram;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop load driver for comparing deployments. Keeps loadgen.concurrency requests
+// outstanding against the payment shards until loadgen.requests have completed, then prints
+// throughput and latency. Run the same settings with a single-container descriptor and a
+// multi-container one to compare them:
+//
+//   loadgen.requests=20000
+//   loadgen.concurrency=64
+//   # or PROCESS_PAYMENT to exercise the write path
+//   loadgen.command=VERIFY_PAYMENT
+//   # bookingIds are drawn from 1..bookings
+//   loadgen.bookings=100000
+//   # lets the shards start first
+//   loadgen.startDelayMs=5000
+//
+// DeploymentBenchmark (test sources) runs both descriptors in deploy/ and compares them.
+public class LoadGeneratorAgent extends Agent {
+    private RequestClient client;
+    private PaymentRouter router;
+    private String command;
+    private int total;
+    private int bookings;
+
+    private final AtomicInteger issued = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final Histogram latency = new Histogram("loadgen.latencyUs");
+    private volatile long startNanos;
+
+    @Override
+    protected void setup() {
+        Deployment deployment = Deployment.current();
+        total = deployment.getInt("loadgen.requests", 0);
+        bookings = deployment.getInt("loadgen.bookings", 100000);
+        command = deployment.getString("loadgen.command", Commands.VERIFY_PAYMENT);
+        int concurrency = deployment.getInt("loadgen.concurrency", 64);
+        long startDelayMs = deployment.getInt("loadgen.startDelayMs", 5000);
+
+        client = new RequestClient(this);
+        router = new PaymentRouter();
+
+        addBehaviour(new CyclicBehaviour(this) {
+            @Override
+            public void action() {
+                ACLMessage msg = myAgent.receive();
+                if (msg != null) {
+                    client.onReply(msg);
+                } else {
+                    block();
+                }
+            }
+        });
+        addBehaviour(new WakerBehaviour(this, startDelayMs) {
+            @Override
+            protected void onWake() {
+                startNanos = System.nanoTime();
+                for (int i = 0; i < concurrency; i++) {
+                    issueNext();
+                }
+            }
+        });
+    }
+
+    private void issueNext() {
+        if (issued.incrementAndGet() > total) {
+            return;
+        }
+
+        int bookingId = ThreadLocalRandom.current().nextInt(1, bookings + 1);
+        long sentAt = System.nanoTime();
+        CompletableFuture<ACLMessage> reply = client.request(router.route(bookingId), request(bookingId));
+        reply.whenComplete((msg, error) -> {
+            latency.record((System.nanoTime() - sentAt) / 1000);
+            if (error != null) {
+                (error instanceof TimeoutException ? timedOut : failed).incrementAndGet();
+            } else if (msg.getPerformative() == ACLMessage.INFORM) {
+                succeeded.incrementAndGet();
+            } else if (msg.getPerformative() == ACLMessage.REFUSE) {
+                refused.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+
+            if (completed.incrementAndGet() == total) {
+                report();
+            } else {
+                issueNext();
+            }
+        });
+    }
+
+    private Message request(int bookingId) {
+        if (Commands.PROCESS_PAYMENT.equals(command)) {
+            return Commands.PAYMENT_CODEC.create(Commands.PROCESS_PAYMENT, 1.0, bookingId);
+        }
+        // Payment ids and booking ids share the range here; only the routing matters
+        return Commands.PAYMENT_CODEC.create(Commands.VERIFY_PAYMENT, bookingId, bookingId);
+    }
+
+    private void report() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String deployment = Deployment.current().getPath() != null ? Deployment.current().getPath() : "single container";
+        System.out.printf("LoadGenerator [%s, %d shards]: %d %s in %.2f s = %.0f req/s; ok=%d, refused=%d, "
+                        + "failed=%d, timeouts=%d; %s%n",
+                deployment, router.getShards().size(), total, command, seconds, total / seconds,
+                succeeded.get(), refused.get(), failed.get(), timedOut.get(), latency);
+    }
+}
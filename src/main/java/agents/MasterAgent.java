@@ -5,39 +5,87 @@ import jade.wrapper.AgentController;
 import jade.wrapper.ContainerController;
 import jade.wrapper.StaleProxyException;
 import gui.MasterGUI;
+import utils.RunMode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class MasterAgent extends Agent {
-    private MasterGUI gui;
+    private volatile MasterGUI gui;
+    private boolean headless;
 
     @Override
     protected void setup() {
-        gui = new MasterGUI(this);
-        gui.setVisible(true);
+        long startNanos = System.nanoTime();
+        headless = RunMode.isHeadless(getArguments());
+        if (!headless) {
+            attachGui();
+        }
 
         // Start other agents
         startAgents();
+
+        RunMode.logStartup(getLocalName(), startNanos, headless);
+    }
+
+    // Creates the window on first use; a headless agent can get one later this way
+    public synchronized void attachGui() {
+        if (gui == null) {
+            gui = new MasterGUI(this);
+        }
+        gui.setVisible(true);
+    }
+
+    // Every agent of the system, in start order. Shared with peripheral JVMs, which start the
+    // ones placed in their container.
+    public static List<Deployment.AgentSpec> plannedAgents(Deployment deployment, boolean headless) {
+        List<Deployment.AgentSpec> agents = new ArrayList<>();
+        agents.add(new Deployment.AgentSpec("CustomerAgent", "agents.CustomerAgent", childArguments(headless)));
+        agents.add(new Deployment.AgentSpec("VehicleAgent", "agents.VehicleManagementAgent", childArguments(headless)));
+        agents.add(new Deployment.AgentSpec("ReservationAgent", "agents.ReservationAgent", childArguments(headless)));
+        agents.add(new Deployment.AgentSpec("RegistrationAgent", "agents.RegistrationAgent", childArguments(headless)));
+        agents.add(new Deployment.AgentSpec("GatewayAgent", "agents.GatewayAgent", childArguments(headless)));
+
+        // Payment shards; callers pick one with PaymentRouter
+        for (int i = 0; i < PaymentRouter.SHARDS; i++) {
+            agents.add(new Deployment.AgentSpec(PaymentRouter.shardName(i), "agents.PaymentAgent",
+                    childArguments(headless, i)));
+        }
+
+        if (deployment.getInt("loadgen.requests", 0) > 0) {
+            agents.add(new Deployment.AgentSpec("LoadGenerator", "agents.LoadGeneratorAgent", childArguments(headless)));
+        }
+        return agents;
+    }
+
+    // Children inherit the master's mode
+    private static Object[] childArguments(boolean headless, Object... args) {
+        if (!headless) {
+            return args.length == 0 ? null : args;
+        }
+        Object[] withFlag = Arrays.copyOf(args, args.length + 1);
+        withFlag[args.length] = RunMode.HEADLESS_ARG;
+        return withFlag;
     }
 
+    // Starts the agents placed in the main container or an in-JVM peripheral container; agents
+    // placed in a separate JVM are started by that JVM
     private void startAgents() {
-        ContainerController cc = getContainerController();
-        try {
-            // Create agent instances
-            AgentController customerAgent = cc.createNewAgent("CustomerAgent",
-                    "agents.CustomerAgent", null);
-            AgentController vehicleAgent = cc.createNewAgent("VehicleAgent",
-                    "agents.VehicleManagementAgent", null);
-            AgentController reservationAgent = cc.createNewAgent("ReservationAgent",
-                    "agents.ReservationAgent", null);
-            AgentController paymentAgent = cc.createNewAgent("PaymentAgent",
-                    "agents.PaymentAgent", null);
-
-            // Start agents
-            customerAgent.start();
-            vehicleAgent.start();
-            reservationAgent.start();
-            paymentAgent.start();
-        } catch (StaleProxyException e) {
-            e.printStackTrace();
+        Deployment deployment = Deployment.current();
+        for (Deployment.AgentSpec spec : plannedAgents(deployment, headless)) {
+            String container = deployment.containerOf(spec.getName());
+            ContainerController target = Deployment.MAIN.equals(container)
+                    ? getContainerController() : Deployment.getLocalContainer(container);
+            if (target == null) {
+                continue;
+            }
+            try {
+                AgentController agent = target.createNewAgent(spec.getName(), spec.getClassName(), spec.getArgs());
+                agent.start();
+            } catch (StaleProxyException e) {
+                e.printStackTrace();
+            }
         }
     }
-}
\ No newline at end of file
+}
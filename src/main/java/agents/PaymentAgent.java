@@ -2,133 +2,187 @@ package agents;
 
 import jade.core.Agent;
 import jade.core.AID;
-import jade.core.behaviours.CyclicBehaviour;
 import jade.core.behaviours.OneShotBehaviour;
+import jade.domain.FIPAException;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 import gui.PaymentGUI;
+import database.ConnectionPool;
 import database.DatabaseConnection;
+import database.GroupCommitWriter;
+import database.IdempotencyStore;
+import messaging.CommandDispatcher;
+import messaging.Commands;
+import messaging.IdempotentHandler;
+import messaging.Message;
 import models.Payment;
+import utils.RunMode;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Date;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
 
 public class PaymentAgent extends Agent {
-    private PaymentGUI gui;
-    private Connection dbConnection;
+    private volatile PaymentGUI gui;
+    private boolean headless;
+    private ConnectionPool connectionPool;
+    private GroupCommitWriter<Payment> paymentWriter;
+    private CommandDispatcher dispatcher;
+    private IdempotencyStore idempotencyStore;
+    private int shardIndex;
 
     @Override
     protected void setup() {
+        long startNanos = System.nanoTime();
+        headless = RunMode.isHeadless(getArguments());
+
+        // The shards share one connection budget
+        connectionPool = DatabaseConnection.createPool("payment", PaymentRouter.SHARDS);
+        idempotencyStore = new IdempotencyStore("payment", connectionPool);
+        paymentWriter = new GroupCommitWriter<>("payments", connectionPool,
+                "INSERT INTO payments (booking_id, amount, payment_date, status) VALUES (?, ?, ?, ?)",
+                PaymentAgent::bindPayment,
+                DatabaseConnection.GROUP_COMMIT_WINDOW_MS, DatabaseConnection.GROUP_COMMIT_MAX_BATCH);
+
+        Object[] args = getArguments();
+        shardIndex = args != null && args.length > 0 && args[0] instanceof Integer ? (Integer) args[0] : 0;
         try {
-            dbConnection = DatabaseConnection.getConnection();
-        } catch (SQLException e) {
+            PaymentRouter.register(this, shardIndex);
+        } catch (FIPAException e) {
             e.printStackTrace();
         }
 
-        gui = new PaymentGUI(this);
-        gui.setVisible(true);
+        // All shards share the payments table, so one window is enough
+        if (shardIndex == 0 && !headless) {
+            attachGui();
+        }
 
-        // Add behaviors
-        addBehaviour(new PaymentRequestsServer());
-        addBehaviour(new RefundRequestHandler());
+        // One consumer for all REQUESTs, so payment and refund commands no longer race
+        dispatcher = new CommandDispatcher(this, Commands.PAYMENT_CODEC)
+                .on(Commands.PROCESS_PAYMENT, new IdempotentHandler(idempotencyStore, this::handlePaymentProcess))
+                .on(Commands.PROCESS_PAYMENT_BATCH, this::handlePaymentBatch)
+                .on(Commands.VERIFY_PAYMENT, this::handlePaymentVerification)
+                .on(Commands.PROCESS_REFUND, new IdempotentHandler(idempotencyStore, this::handleRefund))
+                .on(Commands.ATTACH_GUI, this::handleAttachGui)
+                .orderedBy("bookingId");
+        addBehaviour(dispatcher);
+
+        RunMode.logStartup(getLocalName(), startNanos, headless);
     }
 
-    // Behavior to handle payment requests
-    private class PaymentRequestsServer extends CyclicBehaviour {
-        @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
-            ACLMessage msg = myAgent.receive(mt);
+    // Creates the window on first use; a headless agent can get one later this way
+    public synchronized void attachGui() {
+        if (gui == null) {
+            gui = new PaymentGUI(this);
+        }
+        gui.setVisible(true);
+    }
 
-            if (msg != null) {
-                String content = msg.getContent();
-                ACLMessage reply = msg.createReply();
+    // Command handlers, invoked by the dispatcher
+    private void handlePaymentProcess(Message request, ACLMessage reply) {
+        Payment payment = new Payment();
+        payment.setAmount(request.getDouble("amount"));
+        payment.setBookingId(request.getInt("bookingId"));
 
-                if (content.startsWith("PROCESS_PAYMENT")) {
-                    handlePaymentProcess(content, reply);
-                } else if (content.startsWith("VERIFY_PAYMENT")) {
-                    handlePaymentVerification(content, reply);
-                }
+        boolean success = processPayment(payment);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(success ? "PAYMENT_SUCCESS" : "PAYMENT_FAILED");
+    }
 
-                myAgent.send(reply);
-            } else {
-                block();
-            }
+    // Partial failure: each item gets its own SUCCESS/FAILED in the reply
+    private void handlePaymentBatch(Message request, ACLMessage reply) {
+        List<Payment> payments = new ArrayList<>(request.getItems().size());
+        for (Message item : request.getItems()) {
+            Payment payment = new Payment();
+            payment.setAmount(item.getDouble("amount"));
+            payment.setBookingId(item.getInt("bookingId"));
+            payments.add(payment);
         }
 
-        private void handlePaymentProcess(String content, ACLMessage reply) {
-            try {
-                String[] parts = content.split(":");
-                Payment payment = new Payment();
-                payment.setAmount(Double.parseDouble(parts[1]));
-                payment.setBookingId(Integer.parseInt(parts[2]));
-
-                boolean success = processPayment(payment);
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "PAYMENT_SUCCESS" : "PAYMENT_FAILED");
-            } catch (Exception e) {
-                reply.setPerformative(ACLMessage.FAILURE);
-                reply.setContent("ERROR: " + e.getMessage());
-            }
+        boolean[] saved = processPayments(payments);
+        List<String> results = new ArrayList<>(saved.length);
+        for (boolean ok : saved) {
+            results.add(ok ? Commands.ITEM_SUCCESS : Commands.ITEM_FAILED);
         }
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(Commands.formatBatchResult(results));
     }
 
-    // Behavior to handle refund requests
-    private class RefundRequestHandler extends CyclicBehaviour {
-        @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
-            ACLMessage msg = myAgent.receive(mt);
-
-            if (msg != null && msg.getContent().startsWith("PROCESS_REFUND")) {
-                String content = msg.getContent();
-                ACLMessage reply = msg.createReply();
-
-                try {
-                    String[] parts = content.split(":");
-                    int paymentId = Integer.parseInt(parts[1]);
-                    boolean success = processRefund(paymentId);
+    private void handlePaymentVerification(Message request, ACLMessage reply) {
+        String status = getPaymentStatus(request.getInt("paymentId"));
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(status != null ? "PAYMENT_STATUS:" + status : "PAYMENT_NOT_FOUND");
+    }
 
-                    reply.setPerformative(ACLMessage.INFORM);
-                    reply.setContent(success ? "REFUND_SUCCESS" : "REFUND_FAILED");
-                } catch (Exception e) {
-                    reply.setPerformative(ACLMessage.FAILURE);
-                    reply.setContent("ERROR: " + e.getMessage());
-                }
+    private void handleRefund(Message request, ACLMessage reply) {
+        // Older senders do not send the bookingId
+        Integer bookingId = request.has("bookingId") ? request.getInt("bookingId") : null;
+        boolean success = processRefund(request.getInt("paymentId"), bookingId);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(success ? "REFUND_SUCCESS" : "REFUND_FAILED");
+    }
 
-                myAgent.send(reply);
-            } else {
-                block();
-            }
+    private void handleAttachGui(Message request, ACLMessage reply) {
+        if (!RunMode.canShowGui()) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: no display available");
+            return;
         }
+        SwingUtilities.invokeLater(this::attachGui);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("GUI_ATTACHED");
     }
 
     // Database operations
+    // Queued for the next group commit; returns once the row is durable
     public boolean processPayment(Payment payment) {
-        try {
-            String query = "INSERT INTO payments (booking_id, amount, payment_date, status) VALUES (?, ?, ?, ?)";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
-            stmt.setInt(1, payment.getBookingId());
-            stmt.setDouble(2, payment.getAmount());
-            stmt.setTimestamp(3, new Timestamp(new Date().getTime()));
-            stmt.setString(4, "COMPLETED");
+        payment.setPaymentDate(new Date());
+        payment.setStatus("COMPLETED");
+        return paymentWriter.write(payment);
+    }
 
-            int result = stmt.executeUpdate();
-            return result > 0;
+    // Inserts the whole batch in one transaction. If that fails before the commit the rows are
+    // retried one by one, so a bad row fails only itself.
+    public boolean[] processPayments(List<Payment> payments) {
+        Date now = new Date();
+        for (Payment payment : payments) {
+            payment.setPaymentDate(now);
+            payment.setStatus("COMPLETED");
+        }
+
+        try (Connection conn = connectionPool.getConnection()) {
+            return paymentWriter.writeBatch(conn, payments);
         } catch (SQLException e) {
             e.printStackTrace();
-            return false;
+            return new boolean[payments.size()];
         }
     }
 
+    private static void bindPayment(PreparedStatement stmt, Payment payment) throws SQLException {
+        stmt.setInt(1, payment.getBookingId());
+        stmt.setDouble(2, payment.getAmount());
+        stmt.setTimestamp(3, new Timestamp(payment.getPaymentDate().getTime()));
+        stmt.setString(4, payment.getStatus());
+    }
+
     public boolean processRefund(int paymentId) {
-        try {
-            String query = "UPDATE payments SET status = 'REFUNDED', refund_date = ? WHERE payment_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        return processRefund(paymentId, null);
+    }
+
+    // With a bookingId, a payment id that belongs to another booking is not refunded
+    public boolean processRefund(int paymentId, Integer bookingId) {
+        String query = bookingId == null
+                ? "UPDATE payments SET status = 'REFUNDED', refund_date = ? WHERE payment_id = ?"
+                : "UPDATE payments SET status = 'REFUNDED', refund_date = ? WHERE payment_id = ? AND booking_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setTimestamp(1, new Timestamp(new Date().getTime()));
             stmt.setInt(2, paymentId);
+            if (bookingId != null) {
+                stmt.setInt(3, bookingId);
+            }
 
             int result = stmt.executeUpdate();
             return result > 0;
@@ -138,22 +192,66 @@ public class PaymentAgent extends Agent {
         }
     }
 
+    public String getPaymentStatus(int paymentId) {
+        String query = "SELECT status FROM payments WHERE payment_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setInt(1, paymentId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Loads every payment into memory; prefer getPaymentsPage or forEachPayment on large tables
     public List<Payment> getAllPayments() {
         List<Payment> payments = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM payments ORDER BY payment_date DESC";
-            Statement stmt = dbConnection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
-
-            while (rs.next()) {
-                Payment payment = new Payment();
-                payment.setId(rs.getInt("payment_id"));
-                payment.setBookingId(rs.getInt("booking_id"));
-                payment.setAmount(rs.getDouble("amount"));
-                payment.setPaymentDate(rs.getTimestamp("payment_date"));
-                payment.setStatus(rs.getString("status"));
-                payment.setRefundDate(rs.getTimestamp("refund_date"));
-                payments.add(payment);
+        forEachPayment(payments::add);
+        return payments;
+    }
+
+    // Streams every payment, newest first, holding at most one page in memory
+    public void forEachPayment(Consumer<Payment> consumer) {
+        Payment cursor = null;
+        while (true) {
+            List<Payment> page = getPaymentsPage(cursor, DatabaseConnection.PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < DatabaseConnection.PAGE_SIZE) {
+                return;
+            }
+            cursor = page.get(page.size() - 1);
+        }
+    }
+
+    // Keyset pagination on (payment_date, payment_id): pass the last payment of the previous
+    // page as the cursor, or null for the first page
+    public List<Payment> getPaymentsPage(Payment after, int limit) {
+        List<Payment> payments = new ArrayList<>();
+        String query = after == null
+                ? "SELECT * FROM payments ORDER BY payment_date DESC, payment_id DESC LIMIT ?"
+                : "SELECT * FROM payments WHERE payment_date < ? OR (payment_date = ? AND payment_id < ?) "
+                        + "ORDER BY payment_date DESC, payment_id DESC LIMIT ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            if (after != null) {
+                Timestamp paymentDate = toTimestamp(after.getPaymentDate());
+                stmt.setTimestamp(index++, paymentDate);
+                stmt.setTimestamp(index++, paymentDate);
+                stmt.setInt(index++, after.getId());
+            }
+            stmt.setInt(index, limit);
+            stmt.setFetchSize(DatabaseConnection.FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    payments.add(mapPayment(rs));
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -161,15 +259,60 @@ public class PaymentAgent extends Agent {
         return payments;
     }
 
+    private static Payment mapPayment(ResultSet rs) throws SQLException {
+        Payment payment = new Payment();
+        payment.setId(rs.getInt("payment_id"));
+        payment.setBookingId(rs.getInt("booking_id"));
+        payment.setAmount(rs.getDouble("amount"));
+        payment.setPaymentDate(rs.getTimestamp("payment_date"));
+        payment.setStatus(rs.getString("status"));
+        payment.setRefundDate(rs.getTimestamp("refund_date"));
+        return payment;
+    }
+
+    // Keeps sub-millisecond precision when the cursor came from a previous page
+    private static Timestamp toTimestamp(Date date) {
+        return date instanceof Timestamp ? (Timestamp) date : new Timestamp(date.getTime());
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public CommandDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public IdempotencyStore getIdempotencyStore() {
+        return idempotencyStore;
+    }
+
+    public GroupCommitWriter<Payment> getPaymentWriter() {
+        return paymentWriter;
+    }
+
     @Override
     protected void takeDown() {
-        try {
-            if (dbConnection != null) {
-                dbConnection.close();
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Drain in-flight handlers before closing what they use
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        PaymentRouter.deregister(this);
+        if (paymentWriter != null) {
+            paymentWriter.close();
+        }
+        if (idempotencyStore != null) {
+            idempotencyStore.close();
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        if (gui != null) {
+            gui.dispose();
         }
-        gui.dispose();
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.domain.DFService;
+import jade.domain.FIPAException;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import utils.ConsistentHashRing;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Picks the PaymentAgent shard for a booking. bookingIds are consistent-hashed over the shard
+// names PaymentAgent-0..SHARDS-1, so every request for one booking reaches the same shard (and
+// is handled in order there) while different bookings spread across shards. The ring comes
+// from configuration, not from a DF search: every caller builds the same ring whatever has
+// registered so far, and a shard that is restarting keeps its bookings. Shards still register
+// with the Directory Facilitator under SERVICE_TYPE so they can be discovered.
+public class PaymentRouter {
+    public static final String SERVICE_TYPE = "payment-processing";
+    // Each shard has its own pool, writer and purge thread, so keep the default small
+    public static final int SHARDS = Integer.getInteger("crs.payment.shards", 4);
+    private static final int VIRTUAL_NODES = 128;
+
+    private final ConsistentHashRing<String> ring;
+
+    public PaymentRouter() {
+        this(SHARDS);
+    }
+
+    public PaymentRouter(int shards) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < shards; i++) {
+            nodes.put(shardName(i), shardName(i));
+        }
+        this.ring = new ConsistentHashRing<>(nodes, VIRTUAL_NODES);
+    }
+
+    public static String shardName(int index) {
+        return "PaymentAgent-" + index;
+    }
+
+    public static void register(Agent shard, int index) throws FIPAException {
+        ServiceDescription service = new ServiceDescription();
+        service.setType(SERVICE_TYPE);
+        service.setName(shardName(index));
+
+        DFAgentDescription description = new DFAgentDescription();
+        description.setName(shard.getAID());
+        description.addServices(service);
+        DFService.register(shard, description);
+    }
+
+    public static void deregister(Agent shard) {
+        try {
+            DFService.deregister(shard);
+        } catch (FIPAException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public AID route(int bookingId) {
+        return new AID(shardFor(bookingId), AID.ISLOCALNAME);
+    }
+
+    // For VERIFY_PAYMENT / PROCESS_REFUND from senders that do not know the booking. Shards
+    // share the payments table, so any shard can answer; only the ordering behind the
+    // booking's other requests is lost.
+    public AID route(int paymentId, Integer bookingId) {
+        return new AID(shardFor(paymentId, bookingId), AID.ISLOCALNAME);
+    }
+
+    String shardFor(int bookingId) {
+        return ring.nodeFor(bookingId);
+    }
+
+    String shardFor(int paymentId, Integer bookingId) {
+        return ring.nodeFor(bookingId != null ? bookingId : paymentId);
+    }
+
+    public List<String> getShards() {
+        return ring.getNodes();
+    }
+}
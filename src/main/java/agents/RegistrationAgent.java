@@ -2,167 +2,215 @@ package agents;
 
 import jade.core.Agent;
 import jade.core.AID;
-import jade.core.behaviours.CyclicBehaviour;
 import jade.core.behaviours.OneShotBehaviour;
 import jade.lang.acl.ACLMessage;
-import jade.lang.acl.MessageTemplate;
 import gui.RegistrationGUI;
+import database.ConnectionPool;
 import database.DatabaseConnection;
+import messaging.CommandDispatcher;
+import messaging.Commands;
+import messaging.Message;
 import models.Customer;
+import utils.EmailIndex;
+import utils.PasswordHasher;
+import utils.RunMode;
 
-import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
 
 public class RegistrationAgent extends Agent {
-    private RegistrationGUI gui;
-    private Connection dbConnection;
+    // BUSY: the password hasher's queue is full, try again later
+    public enum RegistrationResult { REGISTERED, DUPLICATE_EMAIL, BUSY, FAILED }
 
-    @Override
-    protected void setup() {
-        try {
-            dbConnection = DatabaseConnection.getConnection();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // Sized for the expected customer count; a larger table only raises the false-positive rate
+    private static final long EMAIL_INDEX_EXPECTED = Long.getLong("crs.registration.emailIndex.expected", 1_000_000);
+    private static final double EMAIL_INDEX_FPP = 0.01;
 
-        gui = new RegistrationGUI(this);
-        gui.setVisible(true);
+    private volatile RegistrationGUI gui;
+    private boolean headless;
+    private ConnectionPool connectionPool;
+    private CommandDispatcher dispatcher;
+    private PasswordHasher passwordHasher;
+    private final EmailIndex emailIndex = new EmailIndex(EMAIL_INDEX_EXPECTED, EMAIL_INDEX_FPP);
 
-        // Add behaviors
-        addBehaviour(new RegistrationRequestHandler());
-        addBehaviour(new DeregistrationHandler());
-    }
+    @Override
+    protected void setup() {
+        long startNanos = System.nanoTime();
+        headless = RunMode.isHeadless(getArguments());
 
-    // Behavior to handle registration requests
-    private class RegistrationRequestHandler extends CyclicBehaviour {
-        @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
-            ACLMessage msg = myAgent.receive(mt);
+        connectionPool = DatabaseConnection.createPool("registration");
+        passwordHasher = new PasswordHasher();
 
-            if (msg != null) {
-                String content = msg.getContent();
-                ACLMessage reply = msg.createReply();
+        // Until the index is loaded every address falls back to the database check
+        Thread indexLoader = new Thread(this::loadEmailIndex, "email-index-loader");
+        indexLoader.setDaemon(true);
+        indexLoader.start();
 
-                if (content.startsWith("REGISTER_CUSTOMER")) {
-                    handleRegistration(content, reply);
-                } else if (content.startsWith("UPDATE_CUSTOMER")) {
-                    handleUpdateCustomer(content, reply);
-                }
-
-                myAgent.send(reply);
-            } else {
-                block();
-            }
+        if (!headless) {
+            attachGui();
         }
 
-        private void handleRegistration(String content, ACLMessage reply) {
-            try {
-                // Parse customer details from content
-                Customer customer = parseCustomerData(content);
-                boolean success = registerCustomer(customer);
+        // Add behaviors
+        dispatcher = new CommandDispatcher(this, Commands.REGISTRATION_CODEC)
+                .on(Commands.REGISTER_CUSTOMER, this::handleRegistration)
+                .on(Commands.UPDATE_CUSTOMER, this::handleUpdateCustomer)
+                .on(Commands.DEREGISTER_CUSTOMER, this::handleDeregistration)
+                .on(Commands.ATTACH_GUI, this::handleAttachGui);
+        addBehaviour(dispatcher);
+
+        RunMode.logStartup(getLocalName(), startNanos, headless);
+    }
 
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "REGISTRATION_SUCCESS" : "REGISTRATION_FAILED");
-            } catch (Exception e) {
-                reply.setPerformative(ACLMessage.FAILURE);
-                reply.setContent("ERROR: " + e.getMessage());
-            }
+    // Creates the window on first use; a headless agent can get one later this way
+    public synchronized void attachGui() {
+        if (gui == null) {
+            gui = new RegistrationGUI(this);
         }
+        gui.setVisible(true);
+    }
 
-        private void handleUpdateCustomer(String content, ACLMessage reply) {
-            try {
-                Customer customer = parseCustomerData(content);
-                boolean success = updateCustomer(customer);
+    // Command handlers, invoked by the dispatcher
+    private void handleRegistration(Message request, ACLMessage reply) {
+        // Parse customer details from content
+        Customer customer = parseCustomerData(request);
+        RegistrationResult result = registerCustomer(customer);
+
+        if (result == RegistrationResult.BUSY) {
+            long retryAfterMs = Math.max(1, passwordHasher.estimatedWaitMs());
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent(CommandDispatcher.RETRY_AFTER + ":" + retryAfterMs);
+            reply.addUserDefinedParameter(CommandDispatcher.RETRY_AFTER_PARAM, Long.toString(retryAfterMs));
+            return;
+        }
 
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "UPDATE_SUCCESS" : "UPDATE_FAILED");
-            } catch (Exception e) {
-                reply.setPerformative(ACLMessage.FAILURE);
-                reply.setContent("ERROR: " + e.getMessage());
-            }
+        reply.setPerformative(ACLMessage.INFORM);
+        switch (result) {
+            case REGISTERED:
+                reply.setContent("REGISTRATION_SUCCESS");
+                break;
+            case DUPLICATE_EMAIL:
+                reply.setContent("REGISTRATION_DUPLICATE");
+                break;
+            default:
+                reply.setContent("REGISTRATION_FAILED");
         }
     }
 
-    // Behavior to handle deregistration requests
-    private class DeregistrationHandler extends CyclicBehaviour {
-        @Override
-        public void action() {
-            MessageTemplate mt = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
-            ACLMessage msg = myAgent.receive(mt);
+    private void handleUpdateCustomer(Message request, ACLMessage reply) {
+        Customer customer = parseCustomerData(request);
+        boolean success = updateCustomer(customer);
 
-            if (msg != null && msg.getContent().startsWith("DEREGISTER_CUSTOMER")) {
-                String customerId = msg.getContent().split(":")[1];
-                ACLMessage reply = msg.createReply();
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(success ? "UPDATE_SUCCESS" : "UPDATE_FAILED");
+    }
 
-                boolean success = deregisterCustomer(customerId);
-                reply.setPerformative(ACLMessage.INFORM);
-                reply.setContent(success ? "DEREGISTRATION_SUCCESS" : "DEREGISTRATION_FAILED");
+    private void handleDeregistration(Message request, ACLMessage reply) {
+        boolean success = deregisterCustomer(String.valueOf(request.getInt("customerId")));
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent(success ? "DEREGISTRATION_SUCCESS" : "DEREGISTRATION_FAILED");
+    }
 
-                myAgent.send(reply);
-            } else {
-                block();
-            }
+    private void handleAttachGui(Message request, ACLMessage reply) {
+        if (!RunMode.canShowGui()) {
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: no display available");
+            return;
         }
+        SwingUtilities.invokeLater(this::attachGui);
+        reply.setPerformative(ACLMessage.INFORM);
+        reply.setContent("GUI_ATTACHED");
     }
 
     // Helper methods
-    private Customer parseCustomerData(String content) {
-        // Parse the content string and create a Customer object
-        String[] parts = content.split(":");
+    private Customer parseCustomerData(Message request) {
         Customer customer = new Customer();
-        // Set customer details from parts array
+        if (request.has("customerId")) {
+            customer.setId(request.getInt("customerId"));
+        }
+        if (request.has("email")) {
+            customer.setEmail(request.getString("email"));
+        }
+        if (request.has("password")) {
+            customer.setPassword(request.getString("password"));
+        }
+        customer.setName(request.getString("name"));
+        customer.setPhone(request.getString("phone"));
         return customer;
     }
 
-    private String hashPassword(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes(StandardCharsets.US_ASCII));
-            byte[] hexChars = new byte[hash.length * 2];
-            for (int j = 0; j < hash.length; j++) {
-                int v = hash[j] & 0xFF;
-                hexChars[j * 2] = hash[v >>> 4];
-                hexChars[j * 2 + 1] = hash[v & 0x0F];
+    // Database operations
+    public RegistrationResult registerCustomer(Customer customer) {
+        // Only addresses the index might have seen pay for a duplicate lookup
+        if (emailIndex.mightContain(customer.getEmail())) {
+            if (customerExists(customer.getEmail())) {
+                return RegistrationResult.DUPLICATE_EMAIL;
+            }
+            if (emailIndex.isReady()) {
+                emailIndex.recordFalsePositive();
             }
-            return new String(hexChars, StandardCharsets.UTF_8);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-            return null;
         }
-    }
 
-    // Database operations
-    public boolean registerCustomer(Customer customer) {
+        // Hashed before taking a connection, so a queued hash does not hold one
+        String passwordHash;
         try {
-            // First check if customer already exists
-            if (customerExists(customer.getEmail())) {
-                return false;
-            }
+            passwordHash = passwordHasher.hash(customer.getPassword());
+        } catch (RejectedExecutionException e) {
+            return RegistrationResult.BUSY;
+        }
 
-            String query = "INSERT INTO customers (name, email, phone, password_hash) VALUES (?, ?, ?, ?)";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        // The unique index on customers.email settles concurrent sign-ups for the same address
+        String query = "INSERT INTO customers (name, email, phone, password_hash) VALUES (?, ?, ?, ?)";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, customer.getName());
             stmt.setString(2, customer.getEmail());
             stmt.setString(3, customer.getPhone());
-            stmt.setString(4, hashPassword(customer.getPassword()));
+            stmt.setString(4, passwordHash);
 
-            int result = stmt.executeUpdate();
-            return result > 0;
+            if (stmt.executeUpdate() > 0) {
+                emailIndex.add(customer.getEmail());
+                return RegistrationResult.REGISTERED;
+            }
+            return RegistrationResult.FAILED;
+        } catch (SQLException e) {
+            if (isDuplicateKey(e)) {
+                emailIndex.add(customer.getEmail());
+                return RegistrationResult.DUPLICATE_EMAIL;
+            }
+            e.printStackTrace();
+            return RegistrationResult.FAILED;
+        }
+    }
+
+    // MySQL ER_DUP_ENTRY
+    private static boolean isDuplicateKey(SQLException e) {
+        return e.getErrorCode() == 1062;
+    }
+
+    private void loadEmailIndex() {
+        String query = "SELECT email FROM customers";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setFetchSize(DatabaseConnection.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    emailIndex.add(rs.getString(1));
+                }
+            }
+            emailIndex.markReady();
         } catch (SQLException e) {
             e.printStackTrace();
-            return false;
         }
     }
 
     public boolean deregisterCustomer(String customerId) {
-        try {
-            String query = "UPDATE customers SET status = 'INACTIVE' WHERE customer_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "UPDATE customers SET status = 'INACTIVE' WHERE customer_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, customerId);
 
             int result = stmt.executeUpdate();
@@ -174,9 +222,9 @@ public class RegistrationAgent extends Agent {
     }
 
     public boolean updateCustomer(Customer customer) {
-        try {
-            String query = "UPDATE customers SET name = ?, phone = ? WHERE customer_id = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "UPDATE customers SET name = ?, phone = ? WHERE customer_id = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, customer.getName());
             stmt.setString(2, customer.getPhone());
             stmt.setInt(3, customer.getId());
@@ -190,37 +238,65 @@ public class RegistrationAgent extends Agent {
     }
 
     public boolean customerExists(String email) {
-        try {
-            String query = "SELECT COUNT(*) FROM customers WHERE email = ?";
-            PreparedStatement stmt = dbConnection.prepareStatement(query);
+        String query = "SELECT COUNT(*) FROM customers WHERE email = ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, email);
-            ResultSet rs = stmt.executeQuery();
-
-            if (rs.next()) {
-                return rs.getInt(1) > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1) > 0;
+                }
+                return false;
             }
-            return false;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
         }
     }
 
+    // Loads every customer into memory; prefer getCustomersPage or forEachCustomer on large tables
     public List<Customer> getAllCustomers() {
         List<Customer> customers = new ArrayList<>();
-        try {
-            String query = "SELECT * FROM customers ORDER BY name";
-            Statement stmt = dbConnection.createStatement();
-            ResultSet rs = stmt.executeQuery(query);
-
-            while (rs.next()) {
-                Customer customer = new Customer();
-                customer.setId(rs.getInt("customer_id"));
-                customer.setName(rs.getString("name"));
-                customer.setEmail(rs.getString("email"));
-                customer.setPhone(rs.getString("phone"));
-                customer.setStatus(rs.getString("status"));
-                customers.add(customer);
+        forEachCustomer(customers::add);
+        return customers;
+    }
+
+    // Streams every customer in name order, holding at most one page in memory
+    public void forEachCustomer(Consumer<Customer> consumer) {
+        Customer cursor = null;
+        while (true) {
+            List<Customer> page = getCustomersPage(cursor, DatabaseConnection.PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < DatabaseConnection.PAGE_SIZE) {
+                return;
+            }
+            cursor = page.get(page.size() - 1);
+        }
+    }
+
+    // Keyset pagination on (name, customer_id): pass the last customer of the previous
+    // page as the cursor, or null for the first page
+    public List<Customer> getCustomersPage(Customer after, int limit) {
+        List<Customer> customers = new ArrayList<>();
+        String query = after == null
+                ? "SELECT * FROM customers ORDER BY name, customer_id LIMIT ?"
+                : "SELECT * FROM customers WHERE name > ? OR (name = ? AND customer_id > ?) "
+                        + "ORDER BY name, customer_id LIMIT ?";
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query)) {
+            int index = 1;
+            if (after != null) {
+                stmt.setString(index++, after.getName());
+                stmt.setString(index++, after.getName());
+                stmt.setInt(index++, after.getId());
+            }
+            stmt.setInt(index, limit);
+            stmt.setFetchSize(DatabaseConnection.FETCH_SIZE);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    customers.add(mapCustomer(rs));
+                }
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -228,15 +304,46 @@ public class RegistrationAgent extends Agent {
         return customers;
     }
 
+    private static Customer mapCustomer(ResultSet rs) throws SQLException {
+        Customer customer = new Customer();
+        customer.setId(rs.getInt("customer_id"));
+        customer.setName(rs.getString("name"));
+        customer.setEmail(rs.getString("email"));
+        customer.setPhone(rs.getString("phone"));
+        customer.setStatus(rs.getString("status"));
+        return customer;
+    }
+
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public CommandDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    public EmailIndex getEmailIndex() {
+        return emailIndex;
+    }
+
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
     @Override
     protected void takeDown() {
-        try {
-            if (dbConnection != null) {
-                dbConnection.close();
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        // Drain in-flight handlers before closing what they use
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        if (passwordHasher != null) {
+            passwordHasher.close();
+        }
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+        if (gui != null) {
+            gui.dispose();
         }
-        gui.dispose();
     }
 }
\ No newline at end of file
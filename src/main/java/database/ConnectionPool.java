@@ -0,0 +1,343 @@
+package database;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class ConnectionPool implements DataSource, AutoCloseable {
+    private final String name;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int maxSize;
+    private final long acquireTimeoutMs;
+    private final long maxIdleMs;
+    private final long validationIntervalMs;
+    private final int statementCacheSize;
+
+    // Most recently returned connection sits at the head, so the tail holds the stalest ones
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    // Metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    private final AtomicLong statementEvictions = new AtomicLong();
+
+    public ConnectionPool(String name, String url, String user, String password, int maxSize,
+                          long acquireTimeoutMs, long maxIdleMs, long validationIntervalMs,
+                          int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.name = name;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = maxSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.maxIdleMs = maxIdleMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed");
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMs
+                        + " ms waiting for a connection from pool '" + name + "'");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection from pool '" + name + "'", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(url, user, password));
+                createdCount.incrementAndGet();
+            }
+            active.incrementAndGet();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pool '" + name + "' uses fixed credentials");
+    }
+
+    // Pops idle connections until one passes validation, discarding stale or broken ones
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+
+            long idleFor = System.currentTimeMillis() - pooled.lastReturned;
+            if (idleFor > maxIdleMs || (idleFor > validationIntervalMs && !pooled.isValid())) {
+                evict(pooled);
+                continue;
+            }
+            return pooled;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (closed || !pooled.reset()) {
+                evict(pooled);
+            } else {
+                pooled.lastReturned = System.currentTimeMillis();
+                synchronized (idle) {
+                    idle.addFirst(pooled);
+                }
+            }
+            evictExpiredIdle();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictExpiredIdle() {
+        long cutoff = System.currentTimeMillis() - maxIdleMs;
+        while (true) {
+            PooledConnection expired;
+            synchronized (idle) {
+                PooledConnection oldest = idle.peekLast();
+                if (oldest == null || oldest.lastReturned >= cutoff) {
+                    return;
+                }
+                expired = idle.pollLast();
+            }
+            evict(expired);
+        }
+    }
+
+    private void evict(PooledConnection pooled) {
+        evictedCount.incrementAndGet();
+        pooled.closePhysical();
+    }
+
+    private void recordWait(long nanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return;
+            }
+            pooled.closePhysical();
+        }
+    }
+
+    // Pool metrics
+    public String getName() { return name; }
+    public int getMaxSize() { return maxSize; }
+    public int getActiveCount() { return active.get(); }
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+    public int getWaitingCount() { return permits.getQueueLength(); }
+    public long getBorrowCount() { return borrowCount.get(); }
+    public long getTimeoutCount() { return timeoutCount.get(); }
+    public long getCreatedCount() { return createdCount.get(); }
+    public long getEvictedCount() { return evictedCount.get(); }
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : totalWaitNanos.get() / (borrows * 1_000_000.0);
+    }
+    public double getMaxWaitMillis() { return maxWaitNanos.get() / 1_000_000.0; }
+    public long getStatementCacheHits() { return statementHits.get(); }
+    public long getStatementCacheMisses() { return statementMisses.get(); }
+    public long getStatementCacheEvictions() { return statementEvictions.get(); }
+    public double getStatementCacheHitRate() {
+        long hits = statementHits.get();
+        long total = hits + statementMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool{name='%s', active=%d, idle=%d, waiting=%d, max=%d, "
+                        + "avgWaitMs=%.2f, maxWaitMs=%.2f, timeouts=%d, created=%d, evicted=%d, "
+                        + "stmtHits=%d, stmtMisses=%d, stmtEvictions=%d}",
+                name, getActiveCount(), getIdleCount(), getWaitingCount(), maxSize,
+                getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(), getCreatedCount(), getEvictedCount(),
+                getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions());
+    }
+
+    // DataSource boilerplate
+    @Override
+    public PrintWriter getLogWriter() { return null; }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(int seconds) {}
+
+    @Override
+    public int getLoginTimeout() { return (int) TimeUnit.MILLISECONDS.toSeconds(acquireTimeoutMs); }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Not a wrapper for " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    // A physical connection owned by the pool
+    private class PooledConnection {
+        private final Connection physical;
+        private final StatementCache statements;
+        private volatile long lastReturned = System.currentTimeMillis();
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = new StatementCache(physical, statementCacheSize,
+                    statementHits, statementMisses, statementEvictions);
+        }
+
+        Connection lease() {
+            return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeaseHandler(this));
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(1);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // Restores default session state before the connection goes back to the pool
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            statements.closeAll();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Handed out to callers; close() returns the connection to the pool instead of closing it
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean returned;
+
+        LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.physical.isClosed();
+                case "prepareStatement":
+                    if (args.length == 1 && !returned) {
+                        return pooled.statements.prepare((String) args[0]);
+                    }
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + name + "] " + pooled.physical;
+            }
+
+            if (returned) {
+                throw new SQLException("Connection has already been returned to pool '" + name + "'");
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
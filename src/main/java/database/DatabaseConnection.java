@@ -3,11 +3,39 @@ package database;
 import java.sql.*;
 
 public class DatabaseConnection {
-    private static final String URL = "jdbc:mysql://localhost:3306/car_rental";
+    private static final String URL = "jdbc:mysql://localhost:3306/car_rental?useCursorFetch=true";
     private static final String USER = "root";
     private static final String PASSWORD = "root";
 
+    // Pool settings, overridable per agent with -Dcrs.db.pool.<name>.size=N
+    private static final int DEFAULT_POOL_SIZE = Integer.getInteger("crs.db.pool.size", 5);
+    private static final long ACQUIRE_TIMEOUT_MS = Long.getLong("crs.db.pool.acquireTimeoutMs", 5000);
+    private static final long MAX_IDLE_MS = Long.getLong("crs.db.pool.maxIdleMs", 10 * 60 * 1000);
+    private static final long VALIDATION_INTERVAL_MS = Long.getLong("crs.db.pool.validationIntervalMs", 5000);
+    private static final int STATEMENT_CACHE_SIZE = Integer.getInteger("crs.db.statementCacheSize", 32);
+
+    // Group commit settings for high-volume inserts
+    public static final long GROUP_COMMIT_WINDOW_MS = Long.getLong("crs.db.groupCommit.windowMs", 5);
+    public static final int GROUP_COMMIT_MAX_BATCH = Integer.getInteger("crs.db.groupCommit.maxBatch", 64);
+
+    // Paged reads: rows per keyset page and rows per server round trip
+    public static final int PAGE_SIZE = Integer.getInteger("crs.db.pageSize", 500);
+    public static final int FETCH_SIZE = Integer.getInteger("crs.db.fetchSize", 500);
+
     public static Connection getConnection() throws SQLException {
         return DriverManager.getConnection(URL, USER, PASSWORD);
     }
-}
\ No newline at end of file
+
+    public static ConnectionPool createPool(String name) {
+        return createPool(name, 1);
+    }
+
+    // For agents running as several instances (shards): crs.db.pool.<name>.size is then the
+    // budget for all of them together, split evenly, at least 2 connections each
+    public static ConnectionPool createPool(String name, int instances) {
+        int budget = Integer.getInteger("crs.db.pool." + name + ".size", DEFAULT_POOL_SIZE);
+        int size = instances <= 1 ? budget : Math.max(2, budget / instances);
+        return new ConnectionPool(name, URL, USER, PASSWORD, size,
+                ACQUIRE_TIMEOUT_MS, MAX_IDLE_MS, VALIDATION_INTERVAL_MS, STATEMENT_CACHE_SIZE);
+    }
+}
@@ -0,0 +1,184 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-behind appender for gateway_logs. Callers only enqueue into a bounded ring buffer;
+// a background thread drains it and batch-inserts the rows.
+public class GatewayLogAppender implements AutoCloseable {
+    public enum OverflowPolicy {
+        DROP,   // discard the new event when the buffer is full
+        BLOCK,  // wait for space, applying back-pressure to the caller
+        SAMPLE  // above the high-water mark keep one event in sampleRate, drop when full
+    }
+
+    private static final String INSERT_LOG =
+            "INSERT INTO gateway_logs (gateway_id, event_type, event_data, created_at) VALUES (?, ?, ?, ?)";
+
+    private static class LogEvent {
+        final String gatewayId;
+        final String eventType;
+        final String eventData;
+        final long createdAt = System.currentTimeMillis();
+
+        LogEvent(String gatewayId, String eventType, String eventData) {
+            this.gatewayId = gatewayId;
+            this.eventType = eventType;
+            this.eventData = eventData;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final ArrayBlockingQueue<LogEvent> buffer;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final OverflowPolicy policy;
+    private final int sampleRate;
+    private final int highWaterMark;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    // Metrics
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong sampleCounter = new AtomicLong();
+
+    public GatewayLogAppender(ConnectionPool pool, int capacity, int batchSize, long flushIntervalMs,
+                              OverflowPolicy policy, int sampleRate) {
+        this.pool = pool;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.highWaterMark = capacity * 3 / 4;
+
+        flusher = new Thread(this::runFlusher, "gateway-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Never touches the database; returns false if the event was not buffered
+    public boolean append(String gatewayId, String eventType, String eventData) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        LogEvent event = new LogEvent(gatewayId, eventType, eventData);
+        boolean queued;
+        switch (policy) {
+            case BLOCK:
+                queued = offerBlocking(event);
+                break;
+            case SAMPLE:
+                if (buffer.size() >= highWaterMark && sampleCounter.incrementAndGet() % sampleRate != 0) {
+                    sampledOut.incrementAndGet();
+                    return false;
+                }
+                queued = buffer.offer(event);
+                break;
+            default:
+                queued = buffer.offer(event);
+        }
+
+        if (queued) {
+            accepted.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+        return queued;
+    }
+
+    private boolean offerBlocking(LogEvent event) {
+        try {
+            while (!closed) {
+                if (buffer.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void runFlusher() {
+        List<LogEvent> batch = new ArrayList<>(batchSize);
+        while (!closed || !buffer.isEmpty()) {
+            try {
+                LogEvent first = buffer.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                closed = true;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<LogEvent> batch) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(INSERT_LOG)) {
+            conn.setAutoCommit(false);
+            for (LogEvent event : batch) {
+                stmt.setString(1, event.gatewayId);
+                stmt.setString(2, event.eventType);
+                stmt.setString(3, event.eventData);
+                stmt.setTimestamp(4, new Timestamp(event.createdAt));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+            written.addAndGet(batch.size());
+        } catch (SQLException e) {
+            // Log rows are best effort; a failed batch is counted and discarded
+            failed.addAndGet(batch.size());
+            e.printStackTrace();
+        }
+    }
+
+    // Stops accepting events and waits for everything already buffered to be written
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    public OverflowPolicy getPolicy() { return policy; }
+    public int getBufferedCount() { return buffer.size(); }
+    public int getCapacity() { return buffer.size() + buffer.remainingCapacity(); }
+    public long getAcceptedCount() { return accepted.get(); }
+    public long getDroppedCount() { return dropped.get(); }
+    public long getSampledOutCount() { return sampledOut.get(); }
+    public long getWrittenCount() { return written.get(); }
+    public long getFailedCount() { return failed.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("GatewayLogAppender{policy=%s, buffered=%d/%d, accepted=%d, dropped=%d, "
+                        + "sampledOut=%d, written=%d, failed=%d}",
+                policy, getBufferedCount(), getCapacity(), getAcceptedCount(), getDroppedCount(),
+                getSampledOutCount(), getWrittenCount(), getFailedCount());
+    }
+}
@@ -0,0 +1,288 @@
+package database;
+
+import utils.DaemonThreadFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Enforces the gateway_logs retention period in the background. Each run:
+//
+// 1. If gateway_logs is RANGE partitioned on created_at, drops every partition that lies
+//    entirely before the cutoff. That is a metadata change, however many rows it holds.
+//    Either form works; partitions are created ahead of time by whoever manages the schema:
+//
+//      PARTITION BY RANGE COLUMNS (created_at) (PARTITION p202401 VALUES LESS THAN ('2024-02-01'), ...)
+//      PARTITION BY RANGE (TO_DAYS(created_at)) (PARTITION p202401 VALUES LESS THAN (739282), ...)
+//
+// 2. Deletes the remaining old rows in chunks of chunkSize, oldest first, each chunk its own
+//    short autocommit transaction, pausing between chunks to stay under rowsPerSecond. Each
+//    chunk only locks a range at the old end of the created_at index, so inserts of new
+//    rows are not blocked. Needs an index on created_at.
+//
+// A run stops after maxRunMs and continues at the next interval.
+//
+// The cutoff is taken from the server, NOW() minus the retention period, so it is in the same
+// zone as everything it is compared with: the session time zone, in which MySQL reads the
+// created_at literal of the DELETE, TO_DAYS(created_at) and the RANGE COLUMNS bounds. The
+// epoch seconds of the same instant are compared with UNIX_TIMESTAMP bounds.
+public class GatewayLogRetention {
+    private static final Logger LOG = Logger.getLogger(GatewayLogRetention.class.getName());
+    private static final String SELECT_CUTOFF =
+            "SELECT DATE_FORMAT(NOW() - INTERVAL ? DAY, '%Y-%m-%d %H:%i:%s'), UNIX_TIMESTAMP(NOW() - INTERVAL ? DAY)";
+    private static final DateTimeFormatter DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String DELETE_CHUNK =
+            "DELETE FROM gateway_logs WHERE created_at < ? ORDER BY created_at LIMIT ?";
+    private static final String SELECT_PARTITIONS =
+            "SELECT PARTITION_NAME, PARTITION_METHOD, PARTITION_EXPRESSION, PARTITION_DESCRIPTION, TABLE_ROWS "
+                    + "FROM information_schema.PARTITIONS "
+                    + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'gateway_logs' AND PARTITION_NAME IS NOT NULL";
+    // TO_DAYS('1970-01-01')
+    private static final long TO_DAYS_EPOCH = 719528;
+
+    // Rows created before this are expired: the same instant as session-zone wall-clock time
+    // and as epoch seconds
+    static class Cutoff {
+        final LocalDateTime dateTime;
+        final long epochSecond;
+
+        Cutoff(LocalDateTime dateTime, long epochSecond) {
+            this.dateTime = dateTime;
+            this.epochSecond = epochSecond;
+        }
+    }
+
+    // What one run did
+    public static class Result {
+        private final long rowsDeleted;
+        private final long partitionsDropped;
+        private final long partitionRows;
+        private final int chunks;
+        private final long elapsedMs;
+        private final boolean complete;
+
+        Result(long rowsDeleted, long partitionsDropped, long partitionRows, int chunks, long elapsedMs,
+               boolean complete) {
+            this.rowsDeleted = rowsDeleted;
+            this.partitionsDropped = partitionsDropped;
+            this.partitionRows = partitionRows;
+            this.chunks = chunks;
+            this.elapsedMs = elapsedMs;
+            this.complete = complete;
+        }
+
+        public long getRowsDeleted() { return rowsDeleted; }
+        public long getPartitionsDropped() { return partitionsDropped; }
+        // Row count of the dropped partitions as estimated by information_schema
+        public long getPartitionRows() { return partitionRows; }
+        public int getChunks() { return chunks; }
+        public long getElapsedMs() { return elapsedMs; }
+        // false if the run hit maxRunMs or failed before everything old was gone
+        public boolean isComplete() { return complete; }
+
+        @Override
+        public String toString() {
+            return String.format("deleted %d rows in %d chunks, dropped %d partitions (~%d rows) in %d ms%s",
+                    rowsDeleted, chunks, partitionsDropped, partitionRows, elapsedMs, complete ? "" : ", incomplete");
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final int retentionDays;
+    private final int chunkSize;
+    private final int rowsPerSecond;
+    private final long intervalMs;
+    private final long maxRunMs;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("gateway-log-retention"));
+    private volatile boolean stopped;
+
+    // Metrics
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong rowsDeleted = new AtomicLong();
+    private final AtomicLong partitionsDropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile Result lastResult;
+
+    public GatewayLogRetention(ConnectionPool pool, int retentionDays, int chunkSize, int rowsPerSecond,
+                               long intervalMs, long maxRunMs) {
+        this.pool = pool;
+        this.retentionDays = retentionDays;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.rowsPerSecond = Math.max(1, rowsPerSecond);
+        this.intervalMs = intervalMs;
+        this.maxRunMs = maxRunMs;
+    }
+
+    // First run after initialDelayMs, then intervalMs after each run ends
+    public void start(long initialDelayMs) {
+        scheduler.scheduleWithFixedDelay(this::runScheduled, initialDelayMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void runScheduled() {
+        Result result = runOnce();
+        if (result.getRowsDeleted() > 0 || result.getPartitionsDropped() > 0 || !result.isComplete()) {
+            LOG.log(result.isComplete() ? Level.INFO : Level.WARNING,
+                    "gateway_logs older than " + retentionDays + " days: " + result);
+        }
+    }
+
+    public Result runOnce() {
+        long start = System.currentTimeMillis();
+        long deadline = start + maxRunMs;
+
+        long dropped = 0;
+        long droppedRows = 0;
+        long deleted = 0;
+        int chunks = 0;
+        boolean complete = false;
+        try {
+            Cutoff cutoff = cutoff();
+            for (String[] partition : expiredPartitions(cutoff)) {
+                dropPartition(partition[0]);
+                dropped++;
+                droppedRows += Long.parseLong(partition[1]);
+            }
+
+            long chunkBudgetMs = chunkSize * 1000L / rowsPerSecond;
+            while (!stopped && System.currentTimeMillis() < deadline) {
+                long chunkStart = System.currentTimeMillis();
+                int removed = deleteChunk(cutoff);
+                deleted += removed;
+                chunks++;
+                if (removed < chunkSize) {
+                    complete = true;
+                    break;
+                }
+                // Rate limit: a chunk of chunkSize rows per chunkBudgetMs at most
+                long pauseMs = chunkBudgetMs - (System.currentTimeMillis() - chunkStart);
+                if (pauseMs > 0) {
+                    Thread.sleep(pauseMs);
+                }
+            }
+        } catch (SQLException e) {
+            failures.incrementAndGet();
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Result result = new Result(deleted, dropped, droppedRows, chunks, System.currentTimeMillis() - start, complete);
+        runs.incrementAndGet();
+        rowsDeleted.addAndGet(deleted);
+        partitionsDropped.addAndGet(dropped);
+        lastResult = result;
+        return result;
+    }
+
+    private Cutoff cutoff() throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_CUTOFF)) {
+            stmt.setInt(1, retentionDays);
+            stmt.setInt(2, retentionDays);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return new Cutoff(LocalDateTime.parse(rs.getString(1), DATETIME), rs.getLong(2));
+            }
+        }
+    }
+
+    // As a string, so the driver does not shift it from the JVM's zone to the session's
+    private int deleteChunk(Cutoff cutoff) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(DELETE_CHUNK)) {
+            stmt.setString(1, cutoff.dateTime.format(DATETIME));
+            stmt.setInt(2, chunkSize);
+            return stmt.executeUpdate();
+        }
+    }
+
+    // {name, estimated rows} of each partition whose upper bound is at or before the cutoff;
+    // empty if the table is not range partitioned on created_at
+    private List<String[]> expiredPartitions(Cutoff cutoff) throws SQLException {
+        List<String[]> expired = new ArrayList<>();
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_PARTITIONS);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                if (isExpired(rs.getString("PARTITION_METHOD"), rs.getString("PARTITION_EXPRESSION"),
+                        rs.getString("PARTITION_DESCRIPTION"), cutoff)) {
+                    expired.add(new String[]{rs.getString("PARTITION_NAME"), String.valueOf(rs.getLong("TABLE_ROWS"))});
+                }
+            }
+        }
+        return expired;
+    }
+
+    // True if the partition's exclusive upper bound is at or before the cutoff; false for
+    // bounds we do not understand (MAXVALUE, another column or expression)
+    static boolean isExpired(String method, String expression, String description, Cutoff cutoff) {
+        if (method == null || expression == null || description == null || description.equals("MAXVALUE")) {
+            return false;
+        }
+        String expr = expression.replace("`", "").replace(" ", "").toLowerCase(Locale.ROOT);
+        try {
+            if (method.equals("RANGE COLUMNS") && expr.equals("created_at")) {
+                String value = description.replace("'", "").trim();
+                LocalDateTime bound = value.length() == 10
+                        ? LocalDate.parse(value).atStartOfDay()
+                        : LocalDateTime.parse(value.replace(' ', 'T'));
+                return !bound.isAfter(cutoff.dateTime);
+            }
+            if (method.equals("RANGE") && expr.equals("to_days(created_at)")) {
+                LocalDateTime bound = LocalDate.ofEpochDay(Long.parseLong(description.trim()) - TO_DAYS_EPOCH)
+                        .atStartOfDay();
+                return !bound.isAfter(cutoff.dateTime);
+            }
+            if (method.equals("RANGE") && expr.equals("unix_timestamp(created_at)")) {
+                return Long.parseLong(description.trim()) <= cutoff.epochSecond;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            // Unparseable bound: leave the partition to the chunked delete
+        }
+        return false;
+    }
+
+    private void dropPartition(String name) throws SQLException {
+        try (Connection conn = pool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE gateway_logs DROP PARTITION `" + name.replace("`", "``") + "`");
+        }
+    }
+
+    // Stops the current run after its chunk and cancels future runs
+    public void stop() {
+        stopped = true;
+        scheduler.shutdownNow();
+    }
+
+    // Metrics
+    public long getRunCount() { return runs.get(); }
+    public long getRowsDeleted() { return rowsDeleted.get(); }
+    public long getPartitionsDropped() { return partitionsDropped.get(); }
+    public long getFailureCount() { return failures.get(); }
+    public Result getLastResult() { return lastResult; }
+
+    @Override
+    public String toString() {
+        return String.format("GatewayLogRetention{retentionDays=%d, chunkSize=%d, rowsPerSecond=%d, runs=%d, "
+                        + "rowsDeleted=%d, partitionsDropped=%d, failures=%d, last=[%s]}",
+                retentionDays, chunkSize, rowsPerSecond, runs.get(), rowsDeleted.get(), partitionsDropped.get(),
+                failures.get(), lastResult);
+    }
+}
@@ -0,0 +1,275 @@
+package database;
+
+import utils.Histogram;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Collects single-row inserts from many callers and writes them as one JDBC batch in one
+// transaction, so a burst of N rows costs one commit instead of N. Each caller's future
+// completes only after the batch containing its row has been committed.
+//
+// A failed batch is replayed row by row only when it failed before the commit and was rolled
+// back. If the commit itself fails the batch may or may not be durable, so its rows are
+// reported as failed and counted in getUncertainBatches() instead of being inserted again.
+public class GroupCommitWriter<T> implements AutoCloseable {
+    public static final long WRITE_TIMEOUT_MS = Long.getLong("crs.db.groupCommit.writeTimeoutMs", 30000);
+
+    public interface Binder<T> {
+        void bind(PreparedStatement stmt, T item) throws SQLException;
+    }
+
+    private static class Pending<T> {
+        final T item;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Pending(T item) {
+            this.item = item;
+        }
+    }
+
+    private final String name;
+    private final DataSource pool;
+    private final String sql;
+    private final Binder<T> binder;
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    // Metrics
+    private final Histogram batchSizes;
+    private final AtomicLong committedRows = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+    private final AtomicLong fallbackBatches = new AtomicLong();
+    private final AtomicLong uncertainBatches = new AtomicLong();
+    private final AtomicLong timedOutWrites = new AtomicLong();
+
+    public GroupCommitWriter(String name, DataSource pool, String sql, Binder<T> binder,
+                             long windowMs, int maxBatchSize) {
+        this.name = name;
+        this.pool = pool;
+        this.sql = sql;
+        this.binder = binder;
+        this.windowMs = windowMs;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.batchSizes = new Histogram(name + ".batchSize");
+
+        flusher = new Thread(this::runFlusher, "group-commit-" + name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public CompletableFuture<Boolean> submit(T item) {
+        Pending<T> pending = new Pending<>(item);
+        if (closed) {
+            pending.result.complete(false);
+            return pending.result;
+        }
+        queue.add(pending);
+        // close() may have drained the queue between the check and the add; whoever removes
+        // the row from the queue completes it
+        if (closed && queue.remove(pending)) {
+            pending.result.complete(false);
+        }
+        return pending.result;
+    }
+
+    // Blocks until the row has been committed (true) or rejected (false). Gives up after
+    // WRITE_TIMEOUT_MS; the row may still be committed after that.
+    public boolean write(T item) {
+        try {
+            return submit(item).get(WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return false;
+        } catch (TimeoutException e) {
+            timedOutWrites.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void runFlusher() {
+        List<Pending<T>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending<T> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Hold the batch open for the commit window unless it fills up first
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<T> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                closed = true;
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                for (Pending<T> pending : batch) {
+                    pending.result.complete(false);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Pending<T>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T> pending : batch) {
+            items.add(pending.item);
+        }
+
+        boolean[] results;
+        try (Connection conn = pool.getConnection()) {
+            results = writeBatch(conn, items);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            results = new boolean[items.size()];
+        }
+
+        batchSizes.record(items.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (results[i]) {
+                committedRows.incrementAndGet();
+            } else {
+                failedRows.incrementAndGet();
+            }
+            batch.get(i).result.complete(results[i]);
+        }
+    }
+
+    // Writes all items as one batch in one transaction. If the batch fails before the commit
+    // it is rolled back and the rows are retried one by one, so a single bad row only fails
+    // itself. A failed commit is not replayed (see the class comment).
+    public boolean[] writeBatch(Connection conn, List<T> items) throws SQLException {
+        boolean[] results = new boolean[items.size()];
+        boolean autoCommit = conn.getAutoCommit();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            conn.setAutoCommit(false);
+            int[] counts;
+            try {
+                for (T item : items) {
+                    binder.bind(stmt, item);
+                    stmt.addBatch();
+                }
+                counts = stmt.executeBatch();
+            } catch (SQLException e) {
+                conn.rollback();
+                stmt.clearBatch();
+                fallbackBatches.incrementAndGet();
+                return replay(conn, stmt, items);
+            }
+
+            try {
+                conn.commit();
+            } catch (SQLException e) {
+                uncertainBatches.incrementAndGet();
+                e.printStackTrace();
+                rollbackQuietly(conn);
+                return results;
+            }
+            for (int i = 0; i < results.length; i++) {
+                results[i] = i < counts.length
+                        && (counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO);
+            }
+            return results;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    // Each row in its own autocommit statement, after the batch was rolled back
+    private boolean[] replay(Connection conn, PreparedStatement stmt, List<T> items) throws SQLException {
+        boolean[] results = new boolean[items.size()];
+        conn.setAutoCommit(true);
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                binder.bind(stmt, items.get(i));
+                results[i] = stmt.executeUpdate() > 0;
+            } catch (SQLException e) {
+                // 1062: a row with the same key is already stored, e.g. by an earlier attempt
+                if (e.getErrorCode() == 1062) {
+                    results[i] = true;
+                } else {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            // The connection is likely broken; the pool discards it on validation
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything the flusher did not get to is failed rather than left hanging
+        Pending<T> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result.complete(false);
+        }
+    }
+
+    // Metrics
+    public String getName() { return name; }
+    public long getWindowMs() { return windowMs; }
+    public int getMaxBatchSize() { return maxBatchSize; }
+    public int getPendingCount() { return queue.size(); }
+    public long getCommittedRows() { return committedRows.get(); }
+    public long getFailedRows() { return failedRows.get(); }
+    public long getFallbackBatches() { return fallbackBatches.get(); }
+    // Batches whose commit failed, so whether their rows are stored is unknown
+    public long getUncertainBatches() { return uncertainBatches.get(); }
+    public long getTimedOutWrites() { return timedOutWrites.get(); }
+    public Histogram getBatchSizes() { return batchSizes; }
+
+    @Override
+    public String toString() {
+        return String.format("GroupCommitWriter{name='%s', windowMs=%d, maxBatch=%d, pending=%d, "
+                        + "committed=%d, failed=%d, fallbacks=%d, uncertain=%d, timedOut=%d, %s}",
+                name, windowMs, maxBatchSize, getPendingCount(), getCommittedRows(), getFailedRows(),
+                getFallbackBatches(), getUncertainBatches(), getTimedOutWrites(), batchSizes);
+    }
+}
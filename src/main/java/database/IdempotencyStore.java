@@ -0,0 +1,346 @@
+package database;
+
+import utils.DaemonThreadFactory;
+import utils.TtlCache;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers the reply to each request that carried an idempotency key, so a client retry
+// gets the original reply instead of running the command (and its gateway call / INSERT) again.
+// Recent keys are served from memory; every key is also written to the idempotency_keys table
+// so retries are still recognised after a restart and by other agent instances:
+//
+//   CREATE TABLE idempotency_keys (
+//       idem_key VARCHAR(160) PRIMARY KEY,
+//       status VARCHAR(16) NOT NULL,
+//       performative INT,
+//       reply TEXT,
+//       created_at TIMESTAMP NOT NULL,
+//       INDEX idx_idempotency_created (created_at)
+//   );
+//
+// The key is reserved with a PENDING row before the work runs, so a retry that reaches
+// another instance is refused rather than run twice. The caller decides which replies are
+// kept (see messaging.IdempotentHandler); any other reply, or an exception, deletes the
+// reservation so the request can be retried. If the table cannot be reached the request
+// fails; it is never run unguarded.
+//
+// A PENDING row older than pendingTimeoutMs belongs to a request that crashed or whose
+// DELETE failed; the next retry takes it over. Work run under a key must therefore be safe
+// to repeat after a crash (the gateway call carries a key derived from this one). A kept
+// reply whose UPDATE fails stays in memory and the UPDATE is retried in the background.
+//
+// Concurrent duplicates within this instance wait for the first request's outcome.
+public class IdempotencyStore {
+    public static final long WINDOW_MS = Long.getLong("crs.idempotency.windowMs", TimeUnit.HOURS.toMillis(24));
+    public static final long PENDING_TIMEOUT_MS =
+            Long.getLong("crs.idempotency.pendingTimeoutMs", TimeUnit.MINUTES.toMillis(5));
+    public static final int CACHE_SIZE = Integer.getInteger("crs.idempotency.cacheSize", 10000);
+    public static final long CACHE_TTL_MS = Long.getLong("crs.idempotency.cacheTtlMs", TimeUnit.MINUTES.toMillis(10));
+    private static final long RETRY_INTERVAL_MS = Long.getLong("crs.idempotency.retryIntervalMs", 30000);
+    private static final long DUPLICATE_WAIT_MS = 30000;
+    private static final long PURGE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String STATUS_PENDING = "PENDING";
+    private static final String STATUS_DONE = "DONE";
+
+    private static final String RESERVE_SQL =
+            "INSERT INTO idempotency_keys (idem_key, status, created_at) VALUES (?, '" + STATUS_PENDING + "', ?)";
+    private static final String SELECT_SQL =
+            "SELECT status, performative, reply, created_at FROM idempotency_keys WHERE idem_key = ?";
+    private static final String TAKE_OVER_SQL = "UPDATE idempotency_keys SET created_at = ? WHERE idem_key = ? AND status = '"
+            + STATUS_PENDING + "' AND created_at = ?";
+    private static final String COMPLETE_SQL = "UPDATE idempotency_keys SET status = '" + STATUS_DONE
+            + "', performative = ?, reply = ? WHERE idem_key = ?";
+    private static final String RELEASE_SQL =
+            "DELETE FROM idempotency_keys WHERE idem_key = ? AND status = '" + STATUS_PENDING + "'";
+    private static final String DELETE_EXPIRED_SQL = "DELETE FROM idempotency_keys WHERE idem_key = ? AND created_at < ?";
+    private static final String PURGE_SQL = "DELETE FROM idempotency_keys WHERE created_at < ?";
+
+    // A reply as stored; performative is the ACL performative constant
+    public static class Reply {
+        private final int performative;
+        private final String content;
+
+        public Reply(int performative, String content) {
+            this.performative = performative;
+            this.content = content;
+        }
+
+        public int getPerformative() { return performative; }
+        public String getContent() { return content; }
+    }
+
+    // The guarded work, and which of its replies are final and worth keeping
+    public interface Work {
+        Reply run() throws Exception;
+    }
+
+    public interface Policy {
+        boolean keep(Reply reply);
+    }
+
+    private final String scope;
+    private final DataSource pool;
+    private final TtlCache<String, Reply> recent;
+    private final Map<String, CompletableFuture<Reply>> inFlight = new ConcurrentHashMap<>();
+    // Kept replies whose UPDATE failed; they are served from here until it succeeds
+    private final Map<String, Reply> unsettled = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService purger;
+
+    // Metrics
+    private final AtomicLong replayedFromMemory = new AtomicLong();
+    private final AtomicLong replayedFromDatabase = new AtomicLong();
+    private final AtomicLong joinedInFlight = new AtomicLong();
+    private final AtomicLong refusedPending = new AtomicLong();
+    private final AtomicLong takenOver = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    // scope keeps keys of different agents apart in the shared table
+    public IdempotencyStore(String scope, DataSource pool) {
+        this.scope = scope;
+        this.pool = pool;
+        this.recent = new TtlCache<>(scope + "-idempotency", CACHE_SIZE, Math.min(CACHE_TTL_MS, WINDOW_MS));
+        this.purger = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory(scope + "-idempotency-purge"));
+        purger.scheduleWithFixedDelay(this::purgeExpired, PURGE_INTERVAL_MS, PURGE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        purger.scheduleWithFixedDelay(this::settle, RETRY_INTERVAL_MS, RETRY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Runs the work once per key: a repeated key gets the kept reply of the first run
+    public Reply execute(String key, Work work, Policy policy) throws Exception {
+        key = scope + ":" + key;
+        Reply previous = remembered(key);
+        if (previous != null) {
+            replayedFromMemory.incrementAndGet();
+            return previous;
+        }
+
+        CompletableFuture<Reply> mine = new CompletableFuture<>();
+        CompletableFuture<Reply> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            joinedInFlight.incrementAndGet();
+            return awaitDuplicate(running);
+        }
+
+        try {
+            // The first request may have finished between the lookup and the claim; it caches
+            // its reply before releasing the claim, so memory is enough here
+            previous = remembered(key);
+            if (previous == null) {
+                previous = reserve(key);
+            }
+            if (previous != null) {
+                mine.complete(previous);
+                return previous;
+            }
+
+            boolean keep = false;
+            try {
+                Reply outcome = work.run();
+                if (policy.keep(outcome)) {
+                    complete(key, outcome);
+                    keep = true;
+                }
+                mine.complete(outcome);
+                return outcome;
+            } finally {
+                if (!keep) {
+                    release(key);
+                }
+            }
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Reply remembered(String key) {
+        Reply reply = unsettled.get(key);
+        return reply != null ? reply : recent.get(key);
+    }
+
+    private Reply awaitDuplicate(CompletableFuture<Reply> running) throws Exception {
+        try {
+            return running.get(DUPLICATE_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Original request failed: " + e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Original request with the same idempotency key is still running");
+        }
+    }
+
+    // Inserts the PENDING row. Returns null once the key is ours, or the stored reply if an
+    // earlier request completed it; throws if another live request holds it.
+    private Reply reserve(String key) throws SQLException {
+        try (Connection conn = pool.getConnection()) {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                try (PreparedStatement stmt = conn.prepareStatement(RESERVE_SQL)) {
+                    stmt.setString(1, key);
+                    stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+                    stmt.executeUpdate();
+                    return null;
+                } catch (SQLException e) {
+                    // 1062: the key already has a row
+                    if (e.getErrorCode() != 1062) {
+                        throw e;
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                Timestamp windowStart = new Timestamp(now - WINDOW_MS);
+                try (PreparedStatement stmt = conn.prepareStatement(SELECT_SQL)) {
+                    stmt.setString(1, key);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (!rs.next()) {
+                            // Released in the meantime
+                            continue;
+                        }
+                        Timestamp createdAt = rs.getTimestamp("created_at");
+                        if (createdAt.before(windowStart)) {
+                            deleteExpired(conn, key, windowStart);
+                            continue;
+                        }
+                        if (STATUS_DONE.equals(rs.getString("status"))) {
+                            Reply reply = new Reply(rs.getInt("performative"), rs.getString("reply"));
+                            recent.put(key, reply);
+                            replayedFromDatabase.incrementAndGet();
+                            return reply;
+                        }
+                        if (createdAt.getTime() < now - PENDING_TIMEOUT_MS) {
+                            if (takeOver(conn, key, createdAt)) {
+                                return null;
+                            }
+                            continue;
+                        }
+                    }
+                }
+                refusedPending.incrementAndGet();
+                throw new IllegalStateException("A request with the same idempotency key is still running");
+            }
+        }
+        throw new IllegalStateException("Could not reserve the idempotency key");
+    }
+
+    // Claims a stale PENDING row; only one of several retries racing for it gets the update
+    private boolean takeOver(Connection conn, String key, Timestamp createdAt) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(TAKE_OVER_SQL)) {
+            stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+            stmt.setString(2, key);
+            stmt.setTimestamp(3, createdAt);
+            if (stmt.executeUpdate() == 1) {
+                takenOver.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void deleteExpired(Connection conn, String key, Timestamp windowStart) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(DELETE_EXPIRED_SQL)) {
+            stmt.setString(1, key);
+            stmt.setTimestamp(2, windowStart);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Memory first, so this instance replays the reply even while the UPDATE is failing
+    private void complete(String key, Reply reply) {
+        recent.put(key, reply);
+        if (!store(key, reply)) {
+            unsettled.put(key, reply);
+        }
+    }
+
+    private boolean store(String key, Reply reply) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(COMPLETE_SQL)) {
+            stmt.setInt(1, reply.performative);
+            stmt.setString(2, reply.content);
+            stmt.setString(3, key);
+            stmt.executeUpdate();
+            stored.incrementAndGet();
+            return true;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Retries the failed UPDATEs; until then other instances see PENDING and refuse the key
+    void settle() {
+        for (Map.Entry<String, Reply> entry : unsettled.entrySet()) {
+            if (store(entry.getKey(), entry.getValue())) {
+                unsettled.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    // A row left behind by a failed DELETE is taken over once it is stale
+    private void release(String key) {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(RELEASE_SQL)) {
+            stmt.setString(1, key);
+            stmt.executeUpdate();
+            released.incrementAndGet();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void purgeExpired() {
+        try (Connection conn = pool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PURGE_SQL)) {
+            stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis() - WINDOW_MS));
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Makes a last attempt at the failed UPDATEs
+    public void close() {
+        purger.shutdownNow();
+        settle();
+    }
+
+    // Metrics
+    public long getReplayedFromMemoryCount() { return replayedFromMemory.get(); }
+    public long getReplayedFromDatabaseCount() { return replayedFromDatabase.get(); }
+    public long getJoinedInFlightCount() { return joinedInFlight.get(); }
+    // Requests refused because another request held the key
+    public long getRefusedPendingCount() { return refusedPending.get(); }
+    // Stale reservations claimed by a retry
+    public long getTakenOverCount() { return takenOver.get(); }
+    public long getStoredCount() { return stored.get(); }
+    // Kept replies still waiting for their UPDATE
+    public int getUnsettledCount() { return unsettled.size(); }
+    // Reservations given back after a reply that was not kept
+    public long getReleasedCount() { return released.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("IdempotencyStore{scope=%s, replayedFromMemory=%d, replayedFromDatabase=%d, "
+                        + "joinedInFlight=%d, refusedPending=%d, takenOver=%d, stored=%d, unsettled=%d, "
+                        + "released=%d, inFlight=%d, %s}",
+                scope, getReplayedFromMemoryCount(), getReplayedFromDatabaseCount(), getJoinedInFlightCount(),
+                getRefusedPendingCount(), getTakenOverCount(), getStoredCount(), getUnsettledCount(),
+                getReleasedCount(), inFlight.size(), recent);
+    }
+}
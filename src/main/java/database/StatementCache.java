@@ -0,0 +1,149 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// LRU cache of prepared statements for one physical connection, keyed by SQL text.
+// Callers close the returned statement as usual; close() only hands it back to the cache.
+class StatementCache {
+    private final Connection connection;
+    private final int maxSize;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection connection, int maxSize, AtomicLong hits, AtomicLong misses, AtomicLong evictions) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            hits.incrementAndGet();
+            return cached.checkOut();
+        }
+
+        misses.incrementAndGet();
+        PreparedStatement physical = connection.prepareStatement(sql);
+        if (cached != null || maxSize <= 0) {
+            // Same SQL already checked out on this connection; hand out an uncached statement
+            return physical;
+        }
+
+        cached = new CachedStatement(physical);
+        statements.put(sql, cached);
+        evictOverflow();
+        return cached.checkOut();
+    }
+
+    private void evictOverflow() {
+        Iterator<CachedStatement> it = statements.values().iterator();
+        while (statements.size() > maxSize && it.hasNext()) {
+            CachedStatement eldest = it.next();
+            if (eldest.inUse) {
+                continue;
+            }
+            it.remove();
+            evictions.incrementAndGet();
+            eldest.closePhysical();
+        }
+    }
+
+    synchronized int size() {
+        return statements.size();
+    }
+
+    synchronized void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            cached.closePhysical();
+        }
+        statements.clear();
+    }
+
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement physical;
+        private PreparedStatement proxy;
+        private ResultSet openResultSet;
+        private boolean inUse;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement checkOut() {
+            inUse = true;
+            if (proxy == null) {
+                proxy = (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+                        new Class<?>[]{PreparedStatement.class}, this);
+            }
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    checkIn();
+                    return null;
+                case "isClosed":
+                    return !inUse || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (!inUse) {
+                        throw new SQLException("Statement has already been closed");
+                    }
+                    try {
+                        Object result = method.invoke(physical, args);
+                        if (result instanceof ResultSet) {
+                            openResultSet = (ResultSet) result;
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+
+        // Releases the last result set and resets parameters so the next borrower starts clean
+        private void checkIn() throws SQLException {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            try {
+                if (openResultSet != null) {
+                    openResultSet.close();
+                }
+            } finally {
+                openResultSet = null;
+                physical.clearParameters();
+                physical.clearBatch();
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
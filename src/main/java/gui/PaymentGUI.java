@@ -14,6 +14,8 @@ public class PaymentGUI extends JFrame {
     private JTable paymentTable;
     private DefaultTableModel tableModel;
     private DecimalFormat currencyFormat;
+    private Payment lastLoadedPayment;
+    private static final int PAGE_SIZE = 200;
 
     public PaymentGUI(PaymentAgent agent) {
         this.agent = agent;
@@ -48,6 +50,10 @@ public class PaymentGUI extends JFrame {
         refreshItem.addActionListener(e -> refreshPaymentList());
         fileMenu.add(refreshItem);
 
+        JMenuItem loadMoreItem = new JMenuItem("Load More");
+        loadMoreItem.addActionListener(e -> loadNextPage());
+        fileMenu.add(loadMoreItem);
+
         JMenuItem exportItem = new JMenuItem("Export Report");
         exportItem.addActionListener(e -> exportPaymentReport());
         fileMenu.add(exportItem);
@@ -185,7 +191,16 @@ public class PaymentGUI extends JFrame {
 
     public void refreshPaymentList() {
         tableModel.setRowCount(0);
-        List<Payment> payments = agent.getAllPayments();
+        lastLoadedPayment = null;
+        loadNextPage();
+    }
+
+    // Appends the next page of older payments instead of loading the whole table
+    private void loadNextPage() {
+        List<Payment> payments = agent.getPaymentsPage(lastLoadedPayment, PAGE_SIZE);
+        if (!payments.isEmpty()) {
+            lastLoadedPayment = payments.get(payments.size() - 1);
+        }
 
         for (Payment payment : payments) {
             Object[] row = {
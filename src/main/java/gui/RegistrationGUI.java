@@ -16,6 +16,9 @@ public class RegistrationGUI extends JFrame {
     private JTextField emailField;
     private JTextField phoneField;
     private JPasswordField passwordField;
+    private JButton registerButton;
+    private Customer lastLoadedCustomer;
+    private static final int PAGE_SIZE = 200;
 
     public RegistrationGUI(RegistrationAgent agent) {
         this.agent = agent;
@@ -49,6 +52,10 @@ public class RegistrationGUI extends JFrame {
         refreshItem.addActionListener(e -> refreshCustomerList());
         fileMenu.add(refreshItem);
 
+        JMenuItem loadMoreItem = new JMenuItem("Load More");
+        loadMoreItem.addActionListener(e -> loadNextPage());
+        fileMenu.add(loadMoreItem);
+
         JMenuItem exitItem = new JMenuItem("Exit");
         exitItem.addActionListener(e -> dispose());
         fileMenu.add(exitItem);
@@ -97,7 +104,7 @@ public class RegistrationGUI extends JFrame {
         // Buttons
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
 
-        JButton registerButton = new JButton("Register");
+        registerButton = new JButton("Register");
         registerButton.addActionListener(e -> registerCustomer());
         buttonPanel.add(registerButton);
 
@@ -137,27 +144,52 @@ public class RegistrationGUI extends JFrame {
         mainPanel.add(statusBar, BorderLayout.SOUTH);
     }
 
+    // Hashing the password takes a while, so registration runs on a SwingWorker and the
+    // window stays responsive; the button is disabled until it finishes
     private void registerCustomer() {
-        try {
-            Customer customer = new Customer();
-            customer.setName(nameField.getText());
-            customer.setEmail(emailField.getText());
-            customer.setPhone(phoneField.getText());
-            customer.setPassword(new String(passwordField.getPassword()));
-
-            if (validateCustomerInput(customer)) {
-                boolean success = agent.registerCustomer(customer);
-                if (success) {
-                    JOptionPane.showMessageDialog(this, "Customer registered successfully");
-                    clearForm();
-                    refreshCustomerList();
-                } else {
-                    JOptionPane.showMessageDialog(this, "Registration failed",
+        Customer customer = new Customer();
+        customer.setName(nameField.getText());
+        customer.setEmail(emailField.getText());
+        customer.setPhone(phoneField.getText());
+        customer.setPassword(new String(passwordField.getPassword()));
+        if (!validateCustomerInput(customer)) {
+            return;
+        }
+
+        registerButton.setEnabled(false);
+        new SwingWorker<RegistrationAgent.RegistrationResult, Void>() {
+            @Override
+            protected RegistrationAgent.RegistrationResult doInBackground() {
+                return agent.registerCustomer(customer);
+            }
+
+            @Override
+            protected void done() {
+                registerButton.setEnabled(true);
+                try {
+                    showRegistrationResult(get());
+                } catch (Exception e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(RegistrationGUI.this, "Error: " + cause.getMessage(),
                             "Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
-        } catch (Exception e) {
-            JOptionPane.showMessageDialog(this, "Error: " + e.getMessage(),
+        }.execute();
+    }
+
+    private void showRegistrationResult(RegistrationAgent.RegistrationResult result) {
+        if (result == RegistrationAgent.RegistrationResult.REGISTERED) {
+            JOptionPane.showMessageDialog(this, "Customer registered successfully");
+            clearForm();
+            refreshCustomerList();
+        } else if (result == RegistrationAgent.RegistrationResult.DUPLICATE_EMAIL) {
+            JOptionPane.showMessageDialog(this, "A customer with this email is already registered",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        } else if (result == RegistrationAgent.RegistrationResult.BUSY) {
+            JOptionPane.showMessageDialog(this, "The server is busy, please try again shortly",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        } else {
+            JOptionPane.showMessageDialog(this, "Registration failed",
                     "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
@@ -247,7 +279,16 @@ public class RegistrationGUI extends JFrame {
 
     public void refreshCustomerList() {
         tableModel.setRowCount(0);
-        List<Customer> customers = agent.getAllCustomers();
+        lastLoadedCustomer = null;
+        loadNextPage();
+    }
+
+    // Appends the next page of customers instead of loading the whole table
+    private void loadNextPage() {
+        List<Customer> customers = agent.getCustomersPage(lastLoadedCustomer, PAGE_SIZE);
+        if (!customers.isEmpty()) {
+            lastLoadedCustomer = customers.get(customers.size() - 1);
+        }
 
         for (Customer customer : customers) {
             Object[] row = {
@@ -0,0 +1,327 @@
+package messaging;
+
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import utils.Histogram;
+import utils.WorkerExecutors;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The single REQUEST consumer of an agent. Each message is decoded once and routed to the
+// handler registered for its command through a map lookup, so no two behaviours compete for
+// the same queue. Records per-command queue time (post to dequeue) and service time.
+//
+// In ASYNC mode (the default) handlers run on a worker executor so a slow query does not hold
+// up the agent thread; the reply is sent from the worker and carries the request's
+// conversation-id. At most maxInFlight requests run at once; beyond that, messages stay in
+// the agent's queue until a worker finishes. With orderedBy(field), requests carrying the same
+// value of that field run one after another, in arrival order.
+//
+// Admission control: while more than maxQueueDepth messages are waiting in the agent's queue,
+// the excess is answered with REFUSE and a retry-after hint instead of being processed, so a
+// burst cannot grow the mailbox (and latency) without bound.
+public class CommandDispatcher extends CyclicBehaviour {
+    private static final long serialVersionUID = 1L;
+    public enum Mode { SYNC, ASYNC }
+
+    public static final Mode DEFAULT_MODE = Mode.valueOf(System.getProperty("crs.agent.dispatchMode", "ASYNC"));
+    public static final int MAX_IN_FLIGHT = Integer.getInteger("crs.agent.maxInFlight", 32);
+    public static final int WORKER_THREADS = Integer.getInteger("crs.agent.workerThreads", 8);
+    public static final int MAX_QUEUE_DEPTH = Integer.getInteger("crs.agent.maxQueueDepth", 1000);
+    public static final String RETRY_AFTER = "RETRY_AFTER";
+    public static final String RETRY_AFTER_PARAM = "retry-after-ms";
+    private static final long MIN_RETRY_AFTER_MS = 50;
+    private static final long MAX_RETRY_AFTER_MS = 30000;
+    private static final long SHUTDOWN_WAIT_MS = 5000;
+
+    public interface Handler {
+        // Fills in the reply; an exception becomes a FAILURE reply
+        void handle(Message request, ACLMessage reply) throws Exception;
+    }
+
+    public static class Route {
+        private final String command;
+        private final Handler handler;
+        private final Histogram queueTimeMs;
+        private final Histogram serviceTimeUs;
+        private final AtomicLong failures = new AtomicLong();
+
+        Route(String command, Handler handler) {
+            this.command = command;
+            this.handler = handler;
+            this.queueTimeMs = new Histogram("queueTimeMs." + command);
+            this.serviceTimeUs = new Histogram("serviceTimeUs." + command);
+        }
+
+        public String getCommand() { return command; }
+        public Histogram getQueueTimeMs() { return queueTimeMs; }
+        public Histogram getServiceTimeUs() { return serviceTimeUs; }
+        public long getFailureCount() { return failures.get(); }
+
+        @Override
+        public String toString() {
+            return String.format("%s{failures=%d, %s, %s}", command, getFailureCount(), queueTimeMs, serviceTimeUs);
+        }
+    }
+
+    private final MessageCodec codec;
+    private final Mode mode;
+    private final int maxInFlight;
+    private final int maxQueueDepth;
+    private final MessageTemplate template = MessageTemplate.MatchPerformative(ACLMessage.REQUEST);
+    private final Map<String, Route> routes = new HashMap<>();
+    private final Semaphore inFlight;
+    private final AtomicLong conversationCounter = new AtomicLong();
+    private final Map<String, CompletableFuture<Void>> orderedTails = new ConcurrentHashMap<>();
+    private String orderingField;
+    private ExecutorService workers;
+    // Set while action() is blocked on a full dispatcher; complete() then wakes it
+    private volatile boolean waitingForPermit;
+
+    // Metrics
+    private final AtomicLong notUnderstood = new AtomicLong();
+    private final AtomicLong saturatedWaits = new AtomicLong();
+    private final AtomicLong refused = new AtomicLong();
+    private final AtomicLong maxObservedDepth = new AtomicLong();
+    private final Histogram serviceTimeUs = new Histogram("serviceTimeUs");
+
+    public CommandDispatcher(Agent agent, MessageCodec codec) {
+        this(agent, codec, DEFAULT_MODE, MAX_IN_FLIGHT,
+                Integer.getInteger("crs.agent." + agent.getLocalName() + ".maxQueueDepth", MAX_QUEUE_DEPTH));
+    }
+
+    public CommandDispatcher(Agent agent, MessageCodec codec, Mode mode, int maxInFlight, int maxQueueDepth) {
+        super(agent);
+        this.codec = codec;
+        this.mode = mode;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxQueueDepth = Math.max(1, maxQueueDepth);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        if (mode == Mode.ASYNC) {
+            this.workers = WorkerExecutors.newExecutor(agent.getLocalName() + "-worker", WORKER_THREADS);
+        }
+    }
+
+    // Register handlers before the behaviour is added to the agent
+    public CommandDispatcher on(String command, Handler handler) {
+        if (!codec.supports(command)) {
+            throw new IllegalArgumentException("Codec has no schema for " + command);
+        }
+        routes.put(command, new Route(command, handler));
+        return this;
+    }
+
+    // Serializes requests that share a value of this field (e.g. the same bookingId)
+    public CommandDispatcher orderedBy(String field) {
+        this.orderingField = field;
+        return this;
+    }
+
+    @Override
+    public void action() {
+        int depth = myAgent.getCurQueueSize();
+        maxObservedDepth.accumulateAndGet(depth, Math::max);
+        if (depth > maxQueueDepth) {
+            shed(depth - maxQueueDepth, depth);
+        }
+
+        // Saturated: leave messages queued until a worker frees a permit (or a new message
+        // arrives, so shedding still happens). A permit freed before waitingForPermit was set
+        // is caught by the second check.
+        if (!inFlight.tryAcquire()) {
+            saturatedWaits.incrementAndGet();
+            waitingForPermit = true;
+            block();
+            if (inFlight.availablePermits() > 0) {
+                restart();
+            }
+            return;
+        }
+        waitingForPermit = false;
+
+        ACLMessage msg = myAgent.receive(template);
+        if (msg == null) {
+            inFlight.release();
+            block();
+            return;
+        }
+
+        long dequeuedAt = System.currentTimeMillis();
+        ACLMessage reply = msg.createReply();
+        if (reply.getConversationId() == null) {
+            reply.setConversationId(myAgent.getLocalName() + "-" + conversationCounter.incrementAndGet());
+        }
+
+        Message request;
+        try {
+            request = codec.decode(msg.getContent());
+        } catch (MessageFormatException e) {
+            notUnderstood(reply, e.getMessage());
+            complete(reply);
+            return;
+        }
+
+        Route route = routes.get(request.getCommand());
+        if (route == null) {
+            notUnderstood(reply, "No handler for " + request.getCommand());
+            complete(reply);
+            return;
+        }
+
+        if (msg.getPostTimeStamp() > 0) {
+            route.queueTimeMs.record(dequeuedAt - msg.getPostTimeStamp());
+        }
+
+        if (mode == Mode.SYNC) {
+            run(route, request, reply);
+            return;
+        }
+        try {
+            if (orderingField != null && request.has(orderingField)) {
+                executeOrdered(request.getString(orderingField), route, request, reply);
+            } else {
+                workers.execute(() -> run(route, request, reply));
+            }
+        } catch (RejectedExecutionException e) {
+            shuttingDown(reply);
+        }
+    }
+
+    private void shuttingDown(ACLMessage reply) {
+        reply.setPerformative(ACLMessage.FAILURE);
+        reply.setContent("ERROR: agent is shutting down");
+        complete(reply);
+    }
+
+    // Refuses queued requests until the queue is back at the limit. They are taken from the
+    // head of the queue, the ones whose callers have waited longest and are likeliest to retry.
+    private void shed(int excess, int depth) {
+        long retryAfterMs = retryAfterMs(depth);
+        for (int i = 0; i < excess; i++) {
+            ACLMessage msg = myAgent.receive(template);
+            if (msg == null) {
+                return;
+            }
+            ACLMessage reply = msg.createReply();
+            reply.setPerformative(ACLMessage.REFUSE);
+            reply.setContent(RETRY_AFTER + ":" + retryAfterMs);
+            reply.addUserDefinedParameter(RETRY_AFTER_PARAM, Long.toString(retryAfterMs));
+            send(reply);
+            refused.incrementAndGet();
+        }
+    }
+
+    // Roughly how long the current backlog takes to drain at the observed service rate
+    private long retryAfterMs(int depth) {
+        double meanServiceMs = serviceTimeUs.getMean() / 1000.0;
+        long estimate = (long) (depth * meanServiceMs / (mode == Mode.ASYNC ? maxInFlight : 1));
+        return Math.min(MAX_RETRY_AFTER_MS, Math.max(MIN_RETRY_AFTER_MS, estimate));
+    }
+
+    // Chains the task behind the last one for the same key; the chain is dropped once it drains.
+    // The task runs however the previous one ended. If the executor rejects the hop (shutting
+    // down) the rejection only shows up in the future, so the reply and permit are settled there.
+    private void executeOrdered(String key, Route route, Message request, ACLMessage reply) {
+        AtomicBoolean started = new AtomicBoolean();
+        Runnable task = () -> {
+            started.set(true);
+            run(route, request, reply);
+        };
+        CompletableFuture<Void> tail = orderedTails.compute(key, (k, previous) -> previous == null
+                ? CompletableFuture.runAsync(task, workers)
+                : previous.handle((ignored, error) -> null).thenRunAsync(task, workers));
+        tail.whenComplete((ignored, error) -> {
+            orderedTails.remove(key, tail);
+            if (error != null && !started.get()) {
+                shuttingDown(reply);
+            }
+        });
+    }
+
+    private void run(Route route, Message request, ACLMessage reply) {
+        long start = System.nanoTime();
+        try {
+            route.handler.handle(request, reply);
+        } catch (Exception e) {
+            route.failures.incrementAndGet();
+            reply.setPerformative(ACLMessage.FAILURE);
+            reply.setContent("ERROR: " + e.getMessage());
+        }
+        long elapsedUs = (System.nanoTime() - start) / 1000;
+        route.serviceTimeUs.record(elapsedUs);
+        serviceTimeUs.record(elapsedUs);
+        complete(reply);
+    }
+
+    private void complete(ACLMessage reply) {
+        try {
+            send(reply);
+        } finally {
+            inFlight.release();
+            if (waitingForPermit) {
+                restart();
+            }
+        }
+    }
+
+    // Every reply leaves through here
+    void send(ACLMessage reply) {
+        myAgent.send(reply);
+    }
+
+    private void notUnderstood(ACLMessage reply, String reason) {
+        notUnderstood.incrementAndGet();
+        reply.setPerformative(ACLMessage.NOT_UNDERSTOOD);
+        reply.setContent("ERROR: " + reason);
+    }
+
+    // Lets running handlers finish; call from takeDown() before closing the resources they use
+    public void close() {
+        if (workers == null) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    public Mode getMode() { return mode; }
+    public Route getRoute(String command) { return routes.get(command); }
+    public Collection<Route> getRoutes() { return routes.values(); }
+    public int getInFlightCount() { return maxInFlight - inFlight.availablePermits(); }
+    public int getMaxInFlight() { return maxInFlight; }
+    public long getNotUnderstoodCount() { return notUnderstood.get(); }
+    public long getSaturatedWaitCount() { return saturatedWaits.get(); }
+    public int getQueueDepth() { return myAgent.getCurQueueSize(); }
+    public int getMaxQueueDepth() { return maxQueueDepth; }
+    public long getMaxObservedQueueDepth() { return maxObservedDepth.get(); }
+    public long getRefusedCount() { return refused.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("CommandDispatcher{agent=%s, mode=%s, inFlight=%d/%d, queue=%d/%d, maxQueue=%d, "
+                        + "refused=%d, saturatedWaits=%d, notUnderstood=%d, routes=%s}",
+                myAgent.getLocalName(), mode, getInFlightCount(), maxInFlight, getQueueDepth(), maxQueueDepth,
+                getMaxObservedQueueDepth(), getRefusedCount(), getSaturatedWaitCount(),
+                getNotUnderstoodCount(), routes.values());
+    }
+}
@@ -0,0 +1,87 @@
+package messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Describes one ACL command: its name and the ordered, typed fields that follow it.
+// Optional fields must come last and may be left out of the message (or skipped, see
+// MessageCodec). A command may end with a repeated group: after the fixed fields, the
+// remaining tokens are read as items of the group's schema, e.g. "CMD:a1:b1:a2:b2".
+public class CommandSchema {
+    public static class Field {
+        private final String name;
+        private final FieldType type;
+        private final boolean optional;
+
+        Field(String name, FieldType type, boolean optional) {
+            this.name = name;
+            this.type = type;
+            this.optional = optional;
+        }
+
+        public String getName() { return name; }
+        public FieldType getType() { return type; }
+        public boolean isOptional() { return optional; }
+    }
+
+    private final String name;
+    private final List<Field> fields = new ArrayList<>();
+    private int requiredCount;
+    private CommandSchema itemSchema;
+    private int maxItems;
+
+    public CommandSchema(String name) {
+        this.name = name;
+    }
+
+    public CommandSchema field(String fieldName, FieldType type) {
+        if (requiredCount != fields.size()) {
+            throw new IllegalStateException("Required field '" + fieldName + "' follows an optional field in " + name);
+        }
+        fields.add(new Field(fieldName, type, false));
+        requiredCount++;
+        return this;
+    }
+
+    public CommandSchema optionalField(String fieldName, FieldType type) {
+        if (itemSchema != null) {
+            throw new IllegalStateException("Field '" + fieldName + "' follows the repeated group in " + name);
+        }
+        fields.add(new Field(fieldName, type, true));
+        return this;
+    }
+
+    // Items may not have optional fields, so every item has the same token count
+    public CommandSchema repeated(CommandSchema item, int maxItems) {
+        if (requiredCount != fields.size() || item.requiredCount != item.fields.size() || item.fields.isEmpty()) {
+            throw new IllegalStateException("Repeated group of " + name + " cannot be combined with optional fields");
+        }
+        this.itemSchema = item;
+        this.maxItems = maxItems;
+        return this;
+    }
+
+    public String getName() { return name; }
+    public List<Field> getFields() { return Collections.unmodifiableList(fields); }
+    public int getRequiredCount() { return requiredCount; }
+    public CommandSchema getItemSchema() { return itemSchema; }
+    public int getMaxItems() { return maxItems; }
+
+    int indexOf(String fieldName) {
+        int index = find(fieldName);
+        if (index < 0) {
+            throw new IllegalArgumentException("Command " + name + " has no field '" + fieldName + "'");
+        }
+        return index;
+    }
+
+    int find(String fieldName) {
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).name.equals(fieldName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
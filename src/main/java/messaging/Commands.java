@@ -0,0 +1,105 @@
+package messaging;
+
+import java.util.List;
+
+// Schemas for every command the service agents accept, and one codec per agent
+public class Commands {
+    // PaymentAgent
+    public static final String PROCESS_PAYMENT = "PROCESS_PAYMENT";
+    public static final String PROCESS_PAYMENT_BATCH = "PROCESS_PAYMENT_BATCH";
+    public static final String VERIFY_PAYMENT = "VERIFY_PAYMENT";
+    public static final String PROCESS_REFUND = "PROCESS_REFUND";
+
+    // GatewayAgent
+    public static final String REFUND_PAYMENT = "REFUND_PAYMENT";
+    // Operator commands: stop routing new payments to a gateway / route to it again
+    public static final String DRAIN_GATEWAY = "DRAIN_GATEWAY";
+    public static final String RESUME_GATEWAY = "RESUME_GATEWAY";
+    // gatewayId of a GatewayAgent PROCESS_PAYMENT (or batch item) that lets the agent choose
+    public static final String ANY_GATEWAY = "*";
+
+    // All service agents: show the agent's window (e.g. one started headless)
+    public static final String ATTACH_GUI = "ATTACH_GUI";
+
+    // RegistrationAgent
+    public static final String REGISTER_CUSTOMER = "REGISTER_CUSTOMER";
+    public static final String UPDATE_CUSTOMER = "UPDATE_CUSTOMER";
+    public static final String DEREGISTER_CUSTOMER = "DEREGISTER_CUSTOMER";
+
+    // Optional field of PROCESS_PAYMENT, PROCESS_REFUND and REFUND_PAYMENT; a retry with
+    // the same key gets the original reply (see messaging.IdempotentHandler)
+    public static final String IDEMPOTENCY_KEY = "idempotencyKey";
+
+    // Batch replies: "<RESULT>:<succeeded>:<total>:r1:r2..." with one result per item, in order
+    public static final String PAYMENT_BATCH_RESULT = "PAYMENT_BATCH_RESULT";
+    public static final String ITEM_SUCCESS = "SUCCESS";
+    public static final String ITEM_FAILED = "FAILED";
+    public static final int BATCH_MAX_ITEMS = Integer.getInteger("crs.payment.batch.maxItems", 500);
+
+    public static final MessageCodec PAYMENT_CODEC = new MessageCodec(
+            new CommandSchema(PROCESS_PAYMENT)
+                    .field("amount", FieldType.DOUBLE)
+                    .field("bookingId", FieldType.INT)
+                    .optionalField(IDEMPOTENCY_KEY, FieldType.STRING),
+            new CommandSchema(PROCESS_PAYMENT_BATCH)
+                    .repeated(new CommandSchema("payment")
+                            .field("amount", FieldType.DOUBLE)
+                            .field("bookingId", FieldType.INT), BATCH_MAX_ITEMS),
+            // With a bookingId these reach the shard that took the payment and run behind it in
+            // order; senders that only know the payment id still work (see PaymentRouter)
+            new CommandSchema(VERIFY_PAYMENT)
+                    .field("paymentId", FieldType.INT)
+                    .optionalField("bookingId", FieldType.INT),
+            new CommandSchema(PROCESS_REFUND)
+                    .field("paymentId", FieldType.INT)
+                    .optionalField(IDEMPOTENCY_KEY, FieldType.STRING)
+                    .optionalField("bookingId", FieldType.INT),
+            new CommandSchema(ATTACH_GUI));
+
+    public static final MessageCodec GATEWAY_CODEC = new MessageCodec(
+            new CommandSchema(PROCESS_PAYMENT)
+                    .field("amount", FieldType.DOUBLE)
+                    .field("gatewayId", FieldType.STRING)
+                    .optionalField(IDEMPOTENCY_KEY, FieldType.STRING),
+            new CommandSchema(PROCESS_PAYMENT_BATCH)
+                    .repeated(new CommandSchema("payment")
+                            .field("amount", FieldType.DOUBLE)
+                            .field("gatewayId", FieldType.STRING), BATCH_MAX_ITEMS),
+            new CommandSchema(REFUND_PAYMENT)
+                    .field("transactionId", FieldType.STRING)
+                    .optionalField(IDEMPOTENCY_KEY, FieldType.STRING),
+            new CommandSchema(DRAIN_GATEWAY)
+                    .field("gatewayId", FieldType.STRING),
+            new CommandSchema(RESUME_GATEWAY)
+                    .field("gatewayId", FieldType.STRING),
+            new CommandSchema(ATTACH_GUI));
+
+    public static final MessageCodec REGISTRATION_CODEC = new MessageCodec(
+            new CommandSchema(REGISTER_CUSTOMER)
+                    .field("name", FieldType.STRING)
+                    .field("email", FieldType.STRING)
+                    .field("phone", FieldType.STRING)
+                    .field("password", FieldType.STRING),
+            new CommandSchema(UPDATE_CUSTOMER)
+                    .field("customerId", FieldType.INT)
+                    .field("name", FieldType.STRING)
+                    .field("phone", FieldType.STRING),
+            new CommandSchema(DEREGISTER_CUSTOMER)
+                    .field("customerId", FieldType.INT),
+            new CommandSchema(ATTACH_GUI));
+
+    public static String formatBatchResult(List<String> results) {
+        int succeeded = 0;
+        for (String result : results) {
+            if (!ITEM_FAILED.equals(result)) {
+                succeeded++;
+            }
+        }
+        StringBuilder sb = new StringBuilder(PAYMENT_BATCH_RESULT.length() + results.size() * 8)
+                .append(PAYMENT_BATCH_RESULT).append(':').append(succeeded).append(':').append(results.size());
+        for (String result : results) {
+            sb.append(':').append(result);
+        }
+        return sb.toString();
+    }
+}
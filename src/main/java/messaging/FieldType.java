@@ -0,0 +1,41 @@
+package messaging;
+
+public enum FieldType {
+    STRING,
+    INT,
+    DOUBLE;
+
+    Object parse(String field, String text) {
+        switch (this) {
+            case INT:
+                try {
+                    return Integer.parseInt(text);
+                } catch (NumberFormatException e) {
+                    throw new MessageFormatException("Field '" + field + "' is not an integer: " + text);
+                }
+            case DOUBLE:
+                try {
+                    double value = Double.parseDouble(text);
+                    if (Double.isNaN(value) || Double.isInfinite(value)) {
+                        throw new NumberFormatException();
+                    }
+                    return value;
+                } catch (NumberFormatException e) {
+                    throw new MessageFormatException("Field '" + field + "' is not a number: " + text);
+                }
+            default:
+                return text;
+        }
+    }
+
+    boolean accepts(Object value) {
+        switch (this) {
+            case INT:
+                return value instanceof Integer;
+            case DOUBLE:
+                return value instanceof Double;
+            default:
+                return value instanceof String;
+        }
+    }
+}
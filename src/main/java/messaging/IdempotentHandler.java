@@ -0,0 +1,48 @@
+package messaging;
+
+import database.IdempotencyStore;
+import jade.lang.acl.ACLMessage;
+
+// Runs a handler through an IdempotencyStore when the request carries an idempotency key;
+// requests without one go straight through. Only final replies are kept for retries to
+// replay: successes, declines, and PAYMENT_PENDING, whose outcome is unknown and must not be
+// charged again. Anything else (a FAILED reply, FAILURE, an exception) can be retried.
+public class IdempotentHandler implements CommandDispatcher.Handler {
+    private static final String[] TERMINAL_REPLIES = {
+            "PAYMENT_SUCCESS", "PAYMENT_DECLINED", "PAYMENT_PENDING", "REFUND_SUCCESS", "REFUND_DECLINED"};
+
+    private final IdempotencyStore store;
+    private final CommandDispatcher.Handler handler;
+
+    public IdempotentHandler(IdempotencyStore store, CommandDispatcher.Handler handler) {
+        this.store = store;
+        this.handler = handler;
+    }
+
+    @Override
+    public void handle(Message request, ACLMessage reply) throws Exception {
+        if (!request.has(Commands.IDEMPOTENCY_KEY)) {
+            handler.handle(request, reply);
+            return;
+        }
+        String key = request.getCommand() + ":" + request.getString(Commands.IDEMPOTENCY_KEY);
+        IdempotencyStore.Reply outcome = store.execute(key, () -> {
+            handler.handle(request, reply);
+            return new IdempotencyStore.Reply(reply.getPerformative(), reply.getContent());
+        }, IdempotentHandler::isTerminal);
+        reply.setPerformative(outcome.getPerformative());
+        reply.setContent(outcome.getContent());
+    }
+
+    static boolean isTerminal(IdempotencyStore.Reply reply) {
+        if (reply.getPerformative() != ACLMessage.INFORM || reply.getContent() == null) {
+            return false;
+        }
+        for (String prefix : TERMINAL_REPLIES) {
+            if (reply.getContent().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+package messaging;
+
+import java.util.Collections;
+import java.util.List;
+
+// A decoded command with its typed field values. Missing optional fields are null.
+// Items of a repeated group are messages of the group's schema.
+public class Message {
+    private final CommandSchema schema;
+    private final Object[] values;
+    private final List<Message> items;
+
+    Message(CommandSchema schema, Object[] values) {
+        this(schema, values, Collections.emptyList());
+    }
+
+    Message(CommandSchema schema, Object[] values, List<Message> items) {
+        this.schema = schema;
+        this.values = values;
+        this.items = items;
+    }
+
+    public CommandSchema getSchema() { return schema; }
+    public String getCommand() { return schema.getName(); }
+
+    // False both for unset optional fields and for fields this command does not define
+    public boolean has(String field) {
+        int index = schema.find(field);
+        return index >= 0 && values[index] != null;
+    }
+
+    public String getString(String field) {
+        Object value = values[schema.indexOf(field)];
+        return value == null ? null : value.toString();
+    }
+
+    public int getInt(String field) {
+        return (Integer) require(field);
+    }
+
+    public double getDouble(String field) {
+        return (Double) require(field);
+    }
+
+    private Object require(String field) {
+        Object value = values[schema.indexOf(field)];
+        if (value == null) {
+            throw new MessageFormatException("Missing field '" + field + "' in " + getCommand());
+        }
+        return value;
+    }
+
+    public List<Message> getItems() {
+        return Collections.unmodifiableList(items);
+    }
+
+    Object valueAt(int index) {
+        return values[index];
+    }
+
+    @Override
+    public String toString() {
+        return MessageCodec.encode(this);
+    }
+}
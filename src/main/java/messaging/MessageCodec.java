@@ -0,0 +1,235 @@
+package messaging;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Text codec for ACL message content: "v1:COMMAND:field1:field2...". Inside a field ':' and
+// '\' are escaped with '\', so values may contain colons. Trailing optional fields that are not
+// set are left out; one that is skipped before a later one is written empty, and an empty
+// optional field reads as not set. Content without a version prefix is read as the legacy
+// unversioned format used before v1, so existing senders keep working.
+public class MessageCodec {
+    public static final String VERSION = "v1";
+    private static final char SEPARATOR = ':';
+    private static final char ESCAPE = '\\';
+
+    private final Map<String, CommandSchema> schemas = new HashMap<>();
+
+    public MessageCodec(CommandSchema... commands) {
+        for (CommandSchema schema : commands) {
+            schemas.put(schema.getName(), schema);
+        }
+    }
+
+    public boolean supports(String command) {
+        return schemas.containsKey(command);
+    }
+
+    public Message decode(String content) {
+        if (content == null || content.isEmpty()) {
+            throw new MessageFormatException("Empty message content");
+        }
+
+        List<String> tokens = tokenize(content);
+        int start = 0;
+        if (isVersionToken(tokens.get(0))) {
+            if (!VERSION.equals(tokens.get(0))) {
+                throw new MessageFormatException("Unsupported message version: " + tokens.get(0));
+            }
+            start = 1;
+        }
+        if (tokens.size() <= start) {
+            throw new MessageFormatException("Missing command in: " + content);
+        }
+
+        CommandSchema schema = schemas.get(tokens.get(start));
+        if (schema == null) {
+            throw new MessageFormatException("Unknown command: " + tokens.get(start));
+        }
+
+        if (schema.getItemSchema() != null) {
+            return decodeWithItems(schema, tokens, start + 1);
+        }
+
+        List<CommandSchema.Field> fields = schema.getFields();
+        int count = tokens.size() - start - 1;
+        if (count < schema.getRequiredCount() || count > fields.size()) {
+            throw new MessageFormatException(schema.getName() + " expects " + schema.getRequiredCount()
+                    + (fields.size() > schema.getRequiredCount() ? "-" + fields.size() : "")
+                    + " fields but got " + count);
+        }
+
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < count; i++) {
+            CommandSchema.Field field = fields.get(i);
+            String token = tokens.get(start + 1 + i);
+            values[i] = field.isOptional() && token.isEmpty() ? null : field.getType().parse(field.getName(), token);
+        }
+        return new Message(schema, values);
+    }
+
+    private static Message decodeWithItems(CommandSchema schema, List<String> tokens, int first) {
+        List<CommandSchema.Field> fields = schema.getFields();
+        List<CommandSchema.Field> itemFields = schema.getItemSchema().getFields();
+        int itemTokens = tokens.size() - first - fields.size();
+        if (itemTokens < 0 || itemTokens % itemFields.size() != 0) {
+            throw new MessageFormatException(schema.getName() + " expects " + fields.size()
+                    + " fields followed by groups of " + itemFields.size() + " but got "
+                    + (tokens.size() - first) + " fields");
+        }
+        int itemCount = itemTokens / itemFields.size();
+        if (itemCount > schema.getMaxItems()) {
+            throw new MessageFormatException(schema.getName() + " carries " + itemCount
+                    + " items, limit is " + schema.getMaxItems());
+        }
+
+        Object[] values = new Object[fields.size()];
+        int pos = first;
+        for (int i = 0; i < values.length; i++, pos++) {
+            CommandSchema.Field field = fields.get(i);
+            values[i] = field.getType().parse(field.getName(), tokens.get(pos));
+        }
+
+        List<Message> items = new ArrayList<>(itemCount);
+        for (int n = 0; n < itemCount; n++) {
+            Object[] itemValues = new Object[itemFields.size()];
+            for (int i = 0; i < itemValues.length; i++, pos++) {
+                CommandSchema.Field field = itemFields.get(i);
+                itemValues[i] = field.getType().parse(field.getName(), tokens.get(pos));
+            }
+            items.add(new Message(schema.getItemSchema(), itemValues));
+        }
+        return new Message(schema, values, items);
+    }
+
+    // Builds a message, checking field count and types against the schema
+    public Message create(String command, Object... values) {
+        CommandSchema schema = schemas.get(command);
+        if (schema == null) {
+            throw new MessageFormatException("Unknown command: " + command);
+        }
+        return new Message(schema, checkValues(schema, values));
+    }
+
+    // Builds a command with a repeated group; each element of items holds one item's fields
+    public Message createWithItems(String command, List<Object[]> items, Object... values) {
+        CommandSchema schema = schemas.get(command);
+        if (schema == null) {
+            throw new MessageFormatException("Unknown command: " + command);
+        }
+        CommandSchema itemSchema = schema.getItemSchema();
+        if (itemSchema == null) {
+            throw new MessageFormatException(command + " has no repeated group");
+        }
+        if (items.size() > schema.getMaxItems()) {
+            throw new MessageFormatException(command + " carries " + items.size()
+                    + " items, limit is " + schema.getMaxItems());
+        }
+
+        List<Message> itemMessages = new ArrayList<>(items.size());
+        for (Object[] item : items) {
+            itemMessages.add(new Message(itemSchema, checkValues(itemSchema, item)));
+        }
+        return new Message(schema, checkValues(schema, values), itemMessages);
+    }
+
+    private static Object[] checkValues(CommandSchema schema, Object[] values) {
+        String command = schema.getName();
+        List<CommandSchema.Field> fields = schema.getFields();
+        if (values.length < schema.getRequiredCount() || values.length > fields.size()) {
+            throw new MessageFormatException(command + " expects " + schema.getRequiredCount()
+                    + "-" + fields.size() + " fields but got " + values.length);
+        }
+
+        Object[] copy = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            CommandSchema.Field field = fields.get(i);
+            if (values[i] == null) {
+                if (!field.isOptional()) {
+                    throw new MessageFormatException("Missing field '" + field.getName() + "' in " + command);
+                }
+            } else if (!field.getType().accepts(values[i])) {
+                throw new MessageFormatException("Field '" + field.getName() + "' of " + command
+                        + " must be " + field.getType() + " but was " + values[i].getClass().getSimpleName());
+            }
+            copy[i] = values[i];
+        }
+        return copy;
+    }
+
+    public String encode(String command, Object... values) {
+        return encode(create(command, values));
+    }
+
+    public static String encode(Message message) {
+        StringBuilder sb = new StringBuilder(32).append(VERSION).append(SEPARATOR).append(message.getCommand());
+        appendFields(message, sb);
+        for (Message item : message.getItems()) {
+            appendFields(item, sb);
+        }
+        return sb.toString();
+    }
+
+    private static void appendFields(Message message, StringBuilder sb) {
+        List<CommandSchema.Field> fields = message.getSchema().getFields();
+        int last = fields.size() - 1;
+        while (last >= 0 && message.valueAt(last) == null) {
+            last--;
+        }
+
+        for (int i = 0; i <= last; i++) {
+            sb.append(SEPARATOR);
+            Object value = message.valueAt(i);
+            if (value != null) {
+                escape(value.toString(), sb);
+            }
+        }
+    }
+
+    private static void escape(String value, StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == ESCAPE) {
+                sb.append(ESCAPE);
+            }
+            sb.append(c);
+        }
+    }
+
+    // Single pass split on unescaped separators
+    private static List<String> tokenize(String content) {
+        List<String> tokens = new ArrayList<>(6);
+        StringBuilder current = new StringBuilder(content.length());
+        for (int i = 0; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == ESCAPE) {
+                if (++i == content.length()) {
+                    throw new MessageFormatException("Dangling escape at end of: " + content);
+                }
+                current.append(content.charAt(i));
+            } else if (c == SEPARATOR) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        tokens.add(current.toString());
+        return tokens;
+    }
+
+    // "v" followed by digits; command names are upper case so they never collide
+    private static boolean isVersionToken(String token) {
+        if (token.length() < 2 || token.charAt(0) != 'v') {
+            return false;
+        }
+        for (int i = 1; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,9 @@
+package messaging;
+
+public class MessageFormatException extends IllegalArgumentException {
+    private static final long serialVersionUID = 1L;
+
+    public MessageFormatException(String message) {
+        super(message);
+    }
+}
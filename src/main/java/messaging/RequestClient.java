@@ -0,0 +1,133 @@
+package messaging;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
+import utils.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Request/response on top of ACL messaging. Each request gets a unique conversation-id (also
+// used as reply-with) and a future; the owning agent hands every incoming message to onReply(),
+// which completes the matching future. Any number of requests may be outstanding at once, up
+// to maxOutstanding, each with its own timeout. Latency is recorded per command; a request that
+// times out is recorded at its timeout, so slow receivers still show in the percentiles.
+public class RequestClient {
+    public static final long DEFAULT_TIMEOUT_MS = Long.getLong("crs.client.timeoutMs", 10000);
+    public static final int MAX_OUTSTANDING = Integer.getInteger("crs.client.maxOutstanding", 1000);
+
+    private static class Pending {
+        final String command;
+        final long startNanos;
+        final CompletableFuture<ACLMessage> future;
+
+        Pending(String command, CompletableFuture<ACLMessage> future) {
+            this.command = command;
+            this.startNanos = System.nanoTime();
+            this.future = future;
+        }
+    }
+
+    private final Agent agent;
+    private final int maxOutstanding;
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong idCounter = new AtomicLong();
+
+    // Metrics
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong lateReplies = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public RequestClient(Agent agent) {
+        this(agent, MAX_OUTSTANDING);
+    }
+
+    public RequestClient(Agent agent, int maxOutstanding) {
+        this.agent = agent;
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    public CompletableFuture<ACLMessage> request(AID receiver, Message message) {
+        return request(receiver, message, DEFAULT_TIMEOUT_MS);
+    }
+
+    // The future completes with whatever the receiver answered (INFORM, FAILURE, REFUSE...)
+    // or exceptionally with a TimeoutException after timeoutMs
+    public CompletableFuture<ACLMessage> request(AID receiver, Message message, long timeoutMs) {
+        CompletableFuture<ACLMessage> future = new CompletableFuture<>();
+        if (pending.size() >= maxOutstanding) {
+            rejected.incrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException(
+                    "Too many outstanding requests (" + maxOutstanding + ")"));
+            return future;
+        }
+
+        String id = agent.getLocalName() + "-" + System.currentTimeMillis() + "-" + idCounter.incrementAndGet();
+        Pending entry = new Pending(message.getCommand(), future);
+        pending.put(id, entry);
+        future.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((reply, error) -> {
+            pending.remove(id);
+            if (error instanceof TimeoutException) {
+                timeouts.incrementAndGet();
+                getLatency(entry.command).record((System.nanoTime() - entry.startNanos) / 1000);
+            }
+        });
+
+        ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+        msg.addReceiver(receiver);
+        msg.setConversationId(id);
+        msg.setReplyWith(id);
+        msg.setContent(message.toString());
+        agent.send(msg);
+        sent.incrementAndGet();
+        return future;
+    }
+
+    // Returns true if msg answered one of our requests; false means the agent should handle it
+    public boolean onReply(ACLMessage msg) {
+        String id = msg.getConversationId();
+        Pending entry = id != null ? pending.remove(id) : null;
+        if (entry == null && msg.getInReplyTo() != null) {
+            entry = pending.remove(msg.getInReplyTo());
+        }
+        if (entry == null) {
+            // A reply to something we issued, but it already timed out
+            if (id != null && id.startsWith(agent.getLocalName() + "-")) {
+                lateReplies.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        getLatency(entry.command).record((System.nanoTime() - entry.startNanos) / 1000);
+        entry.future.complete(msg);
+        return true;
+    }
+
+    public Histogram getLatency(String command) {
+        return latencies.computeIfAbsent(command, c -> new Histogram("latencyUs." + c));
+    }
+
+    // Metrics
+    public int getOutstandingCount() { return pending.size(); }
+    public long getSentCount() { return sent.get(); }
+    public long getTimeoutCount() { return timeouts.get(); }
+    public long getLateReplyCount() { return lateReplies.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("RequestClient{agent=%s, outstanding=%d/%d, sent=%d, timeouts=%d, lateReplies=%d, "
+                        + "rejected=%d, latencies=%s}",
+                agent.getLocalName(), getOutstandingCount(), maxOutstanding, getSentCount(), getTimeoutCount(),
+                getLateReplyCount(), getRejectedCount(), latencies.values());
+    }
+}
@@ -0,0 +1,87 @@
+package utils;
+
+// Per-gateway circuit breaker. CLOSED lets everything through; after failureThreshold
+// consecutive failures it goes OPEN and rejects calls for openDurationMs; then HALF_OPEN
+// lets a single trial call through, whose outcome closes or re-opens the circuit.
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private long timesOpened;
+    private long rejectedCalls;
+
+    public CircuitBreaker(String name, int failureThreshold, long openDurationMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = openDurationMs;
+    }
+
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDurationMs) {
+                    state = State.HALF_OPEN;
+                    trialInFlight = true;
+                    return true;
+                }
+                rejectedCalls++;
+                return false;
+            default:
+                if (!trialInFlight) {
+                    trialInFlight = true;
+                    return true;
+                }
+                rejectedCalls++;
+                return false;
+        }
+    }
+
+    // Only the half-open trial closes an open circuit; a success reported while OPEN (a call
+    // that started before it opened) leaves it open until the timeout and trial
+    public synchronized void recordSuccess() {
+        if (state == State.OPEN) {
+            return;
+        }
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        trialInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                timesOpened++;
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    // Reports OPEN without side effects; unlike allowRequest() it never starts a trial
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.currentTimeMillis() - openedAt < openDurationMs;
+    }
+
+    public synchronized State getState() { return state; }
+    public String getName() { return name; }
+    public synchronized int getConsecutiveFailures() { return consecutiveFailures; }
+    public synchronized long getTimesOpened() { return timesOpened; }
+    public synchronized long getRejectedCalls() { return rejectedCalls; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("CircuitBreaker{name='%s', state=%s, consecutiveFailures=%d, opened=%d, rejected=%d}",
+                name, state, consecutiveFailures, timesOpened, rejectedCalls);
+    }
+}
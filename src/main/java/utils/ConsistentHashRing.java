@@ -0,0 +1,56 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Consistent hash ring with virtual nodes. A key maps to the first node clockwise from its
+// hash, so adding or removing one node only moves the keys that node owned (about 1/N).
+// Immutable once built; rebuild it when membership changes.
+public class ConsistentHashRing<T> {
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+    private final List<T> nodes;
+
+    public ConsistentHashRing(Map<String, T> nodesByName, int virtualNodes) {
+        for (Map.Entry<String, T> node : nodesByName.entrySet()) {
+            for (int v = 0; v < virtualNodes; v++) {
+                ring.put(hash(node.getKey() + "#" + v), node.getValue());
+            }
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodesByName.values()));
+    }
+
+    public T nodeFor(long key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, T> entry = ring.ceilingEntry(mix(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public List<T> getNodes() { return nodes; }
+    public boolean isEmpty() { return ring.isEmpty(); }
+
+    // 64-bit FNV-1a, finished with the same mix as keys so both spread evenly
+    private static long hash(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // murmur3 fmix64
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
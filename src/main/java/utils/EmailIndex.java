@@ -0,0 +1,116 @@
+package utils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bloom filter over registered e-mail addresses. A negative answer means the address has
+// definitely not been registered; a positive answer only means it might have been.
+// Until the startup load finishes every address is reported as "might contain".
+public class EmailIndex {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private volatile boolean ready;
+
+    // Metrics
+    private final AtomicLong definitelyNew = new AtomicLong();
+    private final AtomicLong maybePresent = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+
+    public EmailIndex(long expectedEntries, double falsePositiveRate) {
+        long n = Math.max(1, expectedEntries);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = Math.max(64, m);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((bitCount + 63) / 64));
+    }
+
+    public void add(String email) {
+        long hash = hash(email);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            setBit(bit);
+        }
+        entries.incrementAndGet();
+    }
+
+    public boolean mightContain(String email) {
+        if (!ready) {
+            maybePresent.incrementAndGet();
+            return true;
+        }
+
+        long hash = hash(email);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                definitelyNew.incrementAndGet();
+                return false;
+            }
+        }
+        maybePresent.incrementAndGet();
+        return true;
+    }
+
+    // Called when a "might contain" answer turned out to be a new address
+    public void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    public void markReady() {
+        ready = true;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void setBit(long bit) {
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, current, current | mask));
+    }
+
+    // 64-bit FNV-1a over the normalised address, finished with a murmur3 mix step
+    private static long hash(String email) {
+        String normalised = email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < normalised.length(); i++) {
+            h ^= normalised.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Metrics
+    public long getEntryCount() { return entries.get(); }
+    public long getDefinitelyNewCount() { return definitelyNew.get(); }
+    public long getMaybePresentCount() { return maybePresent.get(); }
+    public long getFalsePositiveCount() { return falsePositives.get(); }
+    public long getSizeInBytes() { return bits.length() * 8L; }
+
+    @Override
+    public String toString() {
+        return String.format("EmailIndex{ready=%s, entries=%d, bits=%d, hashes=%d, definitelyNew=%d, "
+                        + "maybePresent=%d, falsePositives=%d}",
+                ready, getEntryCount(), bitCount, hashCount, getDefinitelyNewCount(),
+                getMaybePresentCount(), getFalsePositiveCount());
+    }
+}
@@ -0,0 +1,26 @@
+package utils;
+
+// Calls to an external payment gateway. Implementations block for the duration of the call
+// and give up after their own timeout, reporting TIMEOUT.
+//
+// Calls are idempotent per key: repeating authorize with the same idempotencyKey, or refund
+// with the same transactionId, must not charge or refund twice. A TIMEOUT leaves the outcome
+// unknown, so only a retry with the same key at the same gateway is safe after one.
+public interface GatewayClient {
+    enum Outcome {
+        OK, DECLINED, ERROR, TIMEOUT;
+
+        // A decline is a working gateway saying no; only errors and timeouts count against it
+        public boolean isGatewayHealthy() {
+            return this == OK || this == DECLINED;
+        }
+    }
+
+    Outcome authorize(String gatewayId, String idempotencyKey, String encryptedPayment, double amount);
+
+    // Also voids an authorization, given the idempotencyKey it was made with
+    Outcome refund(String gatewayId, String transactionId);
+
+    // Health check used by the status monitor; OK when the gateway is up
+    Outcome checkStatus(String gatewayId);
+}
@@ -5,11 +5,15 @@ public class GatewayConstants {
     public static final String STATUS_ACTIVE = "ACTIVE";
     public static final String STATUS_INACTIVE = "INACTIVE";
     public static final String STATUS_MAINTENANCE = "MAINTENANCE";
+    // Set by an operator: no new payments are routed to the gateway, refunds still are
+    public static final String STATUS_DRAINING = "DRAINING";
 
     // Transaction Status Constants
     public static final String TRANSACTION_PENDING = "PENDING";
     public static final String TRANSACTION_COMPLETED = "COMPLETED";
     public static final String TRANSACTION_FAILED = "FAILED";
+    // Refused by the gateway; final, unlike FAILED
+    public static final String TRANSACTION_DECLINED = "DECLINED";
     public static final String TRANSACTION_REFUNDED = "REFUNDED";
 
     // Event Types
@@ -20,6 +24,51 @@ public class GatewayConstants {
 
     // Configuration Constants
     public static final int GATEWAY_CHECK_INTERVAL = 30000; // 30 seconds
-    public static final int LOG_RETENTION_DAYS = 30;
-    public static final int MAX_RETRY_ATTEMPTS = 3;
+    public static final int GATEWAY_CHECK_JITTER = Integer.getInteger("crs.gateway.check.jitterMs", 3000);
+    public static final int GATEWAY_PROBE_TIMEOUT = Integer.getInteger("crs.gateway.probe.timeoutMs", 5000);
+    public static final int GATEWAY_PROBE_THREADS = Integer.getInteger("crs.gateway.probe.threads", 8);
+
+    // Circuit breaker per gateway
+    public static final int BREAKER_FAILURE_THRESHOLD = Integer.getInteger("crs.gateway.breaker.failures", 3);
+    public static final int BREAKER_OPEN_DURATION = Integer.getInteger("crs.gateway.breaker.openMs", 60000);
+
+    // Gateway selection for payments that do not name a gateway, see GatewaySelector
+    public static final double SELECT_EWMA_ALPHA = Double.parseDouble(System.getProperty("crs.gateway.select.alpha", "0.2"));
+    public static final long SELECT_INITIAL_LATENCY_MS = Long.getLong("crs.gateway.select.initialLatencyMs", 100);
+
+    // gateway_logs retention, see GatewayLogRetention
+    public static final int LOG_RETENTION_DAYS = Integer.getInteger("crs.gateway.log.retentionDays", 30);
+    public static final int LOG_RETENTION_CHUNK_SIZE = Integer.getInteger("crs.gateway.log.retention.chunkSize", 1000);
+    public static final int LOG_RETENTION_ROWS_PER_SECOND = Integer.getInteger("crs.gateway.log.retention.rowsPerSecond", 5000);
+    public static final long LOG_RETENTION_INTERVAL_MS = Long.getLong("crs.gateway.log.retention.intervalMs", 60 * 60 * 1000L);
+    public static final long LOG_RETENTION_MAX_RUN_MS = Long.getLong("crs.gateway.log.retention.maxRunMs", 10 * 60 * 1000L);
+    public static final long LOG_RETENTION_INITIAL_DELAY_MS = Long.getLong("crs.gateway.log.retention.initialDelayMs", 60000);
+
+    // Gateway call retries (attempts include the first call) and their budget, see RetryPolicy
+    // and RetryBudget
+    public static final int MAX_RETRY_ATTEMPTS = Integer.getInteger("crs.gateway.retry.maxAttempts", 3);
+    public static final long RETRY_BASE_DELAY_MS = Long.getLong("crs.gateway.retry.baseDelayMs", 50);
+    public static final long RETRY_MAX_DELAY_MS = Long.getLong("crs.gateway.retry.maxDelayMs", 1000);
+    public static final double RETRY_BUDGET_RATIO = Double.parseDouble(System.getProperty("crs.gateway.retry.budgetRatio", "0.1"));
+    public static final int RETRY_BUDGET_RESERVE = Integer.getInteger("crs.gateway.retry.budgetReserve", 10);
+
+    // Hedging: a payment still waiting on its gateway after that gateway's p95 latency is also
+    // sent to a second gateway; off by default
+    public static final boolean HEDGE_ENABLED = Boolean.parseBoolean(System.getProperty("crs.gateway.hedge.enabled", "false"));
+    public static final double HEDGE_PERCENTILE = Double.parseDouble(System.getProperty("crs.gateway.hedge.percentile", "95"));
+    public static final int HEDGE_MIN_SAMPLES = Integer.getInteger("crs.gateway.hedge.minSamples", 20);
+    public static final int HEDGE_THREADS = Integer.getInteger("crs.gateway.hedge.threads", 16);
+    // Voids of losing hedges back off between retries, so they get their own threads
+    public static final int HEDGE_VOID_THREADS = Integer.getInteger("crs.gateway.hedge.voidThreads", 2);
+
+    // Gateway log write-behind buffer
+    public static final int LOG_BUFFER_CAPACITY = Integer.getInteger("crs.gateway.log.capacity", 10000);
+    public static final int LOG_BATCH_SIZE = Integer.getInteger("crs.gateway.log.batchSize", 200);
+    public static final long LOG_FLUSH_INTERVAL_MS = Long.getLong("crs.gateway.log.flushIntervalMs", 200);
+    public static final String LOG_OVERFLOW_POLICY = System.getProperty("crs.gateway.log.overflow", "DROP");
+    public static final int LOG_SAMPLE_RATE = Integer.getInteger("crs.gateway.log.sampleRate", 10);
+
+    // Recent-transaction cache used by the refund path
+    public static final int TRANSACTION_CACHE_SIZE = Integer.getInteger("crs.gateway.txCache.size", 50000);
+    public static final long TRANSACTION_CACHE_TTL_MS = Long.getLong("crs.gateway.txCache.ttlMs", 24 * 60 * 60 * 1000L);
 }
\ No newline at end of file
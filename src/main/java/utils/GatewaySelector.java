@@ -0,0 +1,196 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Chooses the gateway for each payment. Every gateway call feeds an EWMA of its latency and
+// success rate; a payment that does not name a gateway goes to one of the routable gateways
+// (ACTIVE, circuit not open) picked at random with weight
+//
+//   successRate / (latencyMs * (inFlight + 1))
+//
+// so the fastest, most reliable, least loaded gateway gets most of the traffic while the
+// others keep receiving enough to notice when they recover. A payment that names a gateway
+// goes there if it is routable, and to the selection above otherwise; so does one naming a
+// gateway that is not in payment_gateways.
+//
+// Draining: a DRAINING gateway gets no new payments but still serves refunds and finishes
+// the calls it has in flight (getInFlight), so it can be taken out without failing traffic.
+public class GatewaySelector {
+    private static final double MIN_SUCCESS_RATE = 0.01;
+
+    public static class GatewayStats {
+        private final String gatewayId;
+        private volatile String status;
+        private double latencyMs = GatewayConstants.SELECT_INITIAL_LATENCY_MS;
+        private double successRate = 1.0;
+        private int inFlight;
+        private long calls;
+        private long failures;
+        // Unlike the averages, includes every call since startup; used for hedging
+        private final Histogram latencyHistogram;
+
+        GatewayStats(String gatewayId, String status) {
+            this.gatewayId = gatewayId;
+            this.status = status;
+            this.latencyHistogram = new Histogram("gatewayLatencyMs." + gatewayId);
+        }
+
+        synchronized void begin() {
+            inFlight++;
+        }
+
+        synchronized void end(long elapsedMs, boolean success) {
+            inFlight--;
+            calls++;
+            if (!success) {
+                failures++;
+            }
+            double alpha = GatewayConstants.SELECT_EWMA_ALPHA;
+            latencyMs += alpha * (Math.max(1, elapsedMs) - latencyMs);
+            successRate += alpha * ((success ? 1.0 : 0.0) - successRate);
+            latencyHistogram.record(elapsedMs);
+        }
+
+        synchronized double weight() {
+            return Math.max(successRate, MIN_SUCCESS_RATE) / (latencyMs * (inFlight + 1));
+        }
+
+        public String getGatewayId() { return gatewayId; }
+        public String getStatus() { return status; }
+        public synchronized double getLatencyMs() { return latencyMs; }
+        public synchronized double getSuccessRate() { return successRate; }
+        public synchronized int getInFlight() { return inFlight; }
+        public synchronized long getCalls() { return calls; }
+        public synchronized long getFailures() { return failures; }
+        public Histogram getLatencyHistogram() { return latencyHistogram; }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s{status=%s, latencyMs=%.1f, successRate=%.3f, inFlight=%d, calls=%d, failures=%d}",
+                    gatewayId, status, latencyMs, successRate, inFlight, calls, failures);
+        }
+    }
+
+    private final Map<String, GatewayStats> gateways = new ConcurrentHashMap<>();
+    private final Function<String, CircuitBreaker> breakers;
+    private final AtomicLong rerouted = new AtomicLong();
+    private final AtomicLong unavailable = new AtomicLong();
+    private volatile boolean statusesLoaded;
+
+    public GatewaySelector(Function<String, CircuitBreaker> breakers) {
+        this.breakers = breakers;
+    }
+
+    // Status as stored in payment_gateways; a gateway seen for the first time starts with
+    // neutral statistics
+    public void updateStatus(String gatewayId, String status) {
+        gateways.computeIfAbsent(gatewayId, id -> new GatewayStats(id, status)).status = status;
+    }
+
+    // Call once the statuses of every gateway in payment_gateways have been loaded
+    public void markLoaded() {
+        statusesLoaded = true;
+    }
+
+    public boolean isLoaded() {
+        return statusesLoaded;
+    }
+
+    // Gateway for a payment: the requested one if it can take it, else the weighted pick.
+    // A gateway we have no status for is trusted only until the statuses are loaded; after
+    // that it is not in payment_gateways and the payment is rerouted.
+    // Returns null when nothing is routable.
+    public String select(String requestedId) {
+        if (requestedId != null) {
+            GatewayStats requested = gateways.get(requestedId);
+            boolean known = requested != null && requested.status != null;
+            if (known ? isRoutable(requested) : !statusesLoaded) {
+                return requestedId;
+            }
+            rerouted.incrementAndGet();
+        }
+        return select();
+    }
+
+    public String select() {
+        String gatewayId = selectExcluding(null);
+        if (gatewayId == null) {
+            unavailable.incrementAndGet();
+        }
+        return gatewayId;
+    }
+
+    // Weighted pick among routable gateways other than excludedId; null when there is none
+    public String selectExcluding(String excludedId) {
+        List<GatewayStats> candidates = new ArrayList<>(gateways.size());
+        double[] weights = new double[gateways.size()];
+        double total = 0;
+        for (GatewayStats stats : gateways.values()) {
+            if (isRoutable(stats) && !stats.gatewayId.equals(excludedId) && candidates.size() < weights.length) {
+                double weight = stats.weight();
+                weights[candidates.size()] = weight;
+                candidates.add(stats);
+                total += weight;
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < candidates.size() - 1; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return candidates.get(i).gatewayId;
+            }
+        }
+        return candidates.get(candidates.size() - 1).gatewayId;
+    }
+
+    private boolean isRoutable(GatewayStats stats) {
+        return GatewayConstants.STATUS_ACTIVE.equals(stats.status) && !breakers.apply(stats.gatewayId).isOpen();
+    }
+
+    // Bracket every call to a gateway, payments and refunds alike
+    public void begin(String gatewayId) {
+        stats(gatewayId).begin();
+    }
+
+    public void end(String gatewayId, long elapsedMs, boolean success) {
+        stats(gatewayId).end(elapsedMs, success);
+    }
+
+    private GatewayStats stats(String gatewayId) {
+        return gateways.computeIfAbsent(gatewayId, id -> new GatewayStats(id, null));
+    }
+
+    // Metrics
+    public GatewayStats getStats(String gatewayId) { return gateways.get(gatewayId); }
+    public int getInFlight(String gatewayId) {
+        GatewayStats stats = gateways.get(gatewayId);
+        return stats == null ? 0 : stats.getInFlight();
+    }
+    // Latency percentile of a gateway's calls, or -1 with fewer than minSamples calls so far
+    public long getLatencyPercentile(String gatewayId, double percentile, int minSamples) {
+        GatewayStats stats = gateways.get(gatewayId);
+        if (stats == null || stats.latencyHistogram.getCount() < minSamples) {
+            return -1;
+        }
+        return stats.latencyHistogram.getPercentile(percentile);
+    }
+
+    public long getReroutedCount() { return rerouted.get(); }
+    public long getUnavailableCount() { return unavailable.get(); }
+
+    @Override
+    public String toString() {
+        return "GatewaySelector{loaded=" + statusesLoaded + ", rerouted=" + rerouted.get() + ", unavailable=" + unavailable.get()
+                + ", gateways=" + gateways.values() + "}";
+    }
+}
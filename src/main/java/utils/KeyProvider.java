@@ -0,0 +1,14 @@
+package utils;
+
+import javax.crypto.SecretKey;
+
+// Source of encryption keys. Ciphertexts record the id of the key that produced them, so keys
+// can be rotated: new data uses the current key while older ids stay readable.
+public interface KeyProvider {
+    String currentKeyId();
+
+    SecretKey currentKey();
+
+    // null if the id is unknown
+    SecretKey key(String keyId);
+}
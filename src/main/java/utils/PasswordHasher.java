@@ -0,0 +1,188 @@
+package utils;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Salted PBKDF2-HMAC-SHA256 password hashing on its own bounded pool. Each hash is deliberately
+// expensive, so the pool is sized to the cores and its queue is bounded: a registration burst
+// queues here (and is rejected once the queue is full) instead of occupying every dispatcher
+// worker with CPU-bound work.
+//
+// Stored format is "pbkdf2$<iterations>$<saltHex>$<hashHex>". The iteration count travels with
+// the hash, so raising crs.password.iterations only affects new hashes and old ones still verify.
+//
+//   crs.password.iterations=210000
+//   crs.password.threads=<cores>
+//   crs.password.queueCapacity=256
+public class PasswordHasher {
+    public static final int ITERATIONS = Integer.getInteger("crs.password.iterations", 210_000);
+    public static final int THREADS = Integer.getInteger("crs.password.threads",
+            Runtime.getRuntime().availableProcessors());
+    public static final int QUEUE_CAPACITY = Integer.getInteger("crs.password.queueCapacity", 256);
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int iterations;
+    private final ThreadPoolExecutor pool;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Histogram hashTimeUs = new Histogram("password.hashTimeUs");
+    private final Histogram queueTimeUs = new Histogram("password.queueTimeUs");
+    private final AtomicLong rejected = new AtomicLong();
+
+    public PasswordHasher() {
+        this(ITERATIONS, THREADS, QUEUE_CAPACITY);
+    }
+
+    public PasswordHasher(int iterations, int threads, int queueCapacity) {
+        this.iterations = iterations;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new DaemonThreadFactory("password-hasher"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Throws RejectedExecutionException when the queue is full; callers should refuse the
+    // request rather than wait
+    public CompletableFuture<String> hashAsync(String password) {
+        return submit(() -> {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            return PREFIX + "$" + iterations + "$" + toHex(salt) + "$" + toHex(derive(password, salt, iterations));
+        });
+    }
+
+    public CompletableFuture<Boolean> verifyAsync(String password, String stored) {
+        return submit(() -> verifyNow(password, stored));
+    }
+
+    // Blocking forms for callers already off the agent and Swing threads (dispatcher workers,
+    // the registration window's SwingWorker)
+    public String hash(String password) {
+        return await(hashAsync(password));
+    }
+
+    public boolean verify(String password, String stored) {
+        return await(verifyAsync(password, stored));
+    }
+
+    private boolean verifyNow(String password, String stored) throws GeneralSecurityException {
+        String[] parts = stored == null ? new String[0] : stored.split("\\$");
+        if (parts.length != 4 || !PREFIX.equals(parts[0])) {
+            // Unsalted hashes written before this format cannot be checked
+            return false;
+        }
+        byte[] expected = fromHex(parts[3]);
+        byte[] actual = derive(password, fromHex(parts[2]), Integer.parseInt(parts[1]));
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private interface HashTask<T> {
+        T run() throws GeneralSecurityException;
+    }
+
+    private <T> CompletableFuture<T> submit(HashTask<T> task) {
+        long submitted = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                long started = System.nanoTime();
+                queueTimeUs.record((started - submitted) / 1000);
+                try {
+                    result.complete(task.run());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    hashTimeUs.record((System.nanoTime() - started) / 1000);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            chars[i * 2] = HEX[v >>> 4];
+            chars[i * 2 + 1] = HEX[v & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    // Roughly how long a new request would wait for the current backlog to clear
+    public long estimatedWaitMs() {
+        return (long) (getQueueDepth() * hashTimeUs.getMean() / 1000.0 / pool.getMaximumPoolSize());
+    }
+
+    public void close() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(5, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Metrics
+    public int getIterations() { return iterations; }
+    public int getQueueDepth() { return pool.getQueue().size(); }
+    public int getActiveCount() { return pool.getActiveCount(); }
+    public long getRejectedCount() { return rejected.get(); }
+    public Histogram getHashTimeUs() { return hashTimeUs; }
+    public Histogram getQueueTimeUs() { return queueTimeUs; }
+
+    @Override
+    public String toString() {
+        return String.format("PasswordHasher[iterations=%d, threads=%d, queued=%d, active=%d, rejected=%d, %s, %s]",
+                iterations, pool.getMaximumPoolSize(), getQueueDepth(), getActiveCount(), rejected.get(),
+                hashTimeUs, queueTimeUs);
+    }
+}
@@ -0,0 +1,103 @@
+package utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// AES-GCM encryption. Cipher instances are reused from a small bounded pool, so the provider
+// lookup happens only when the pool is empty rather than once per payment. (A ThreadLocal
+// does not work here: the agents' workers run a virtual thread per task, so every call would
+// start with an empty one.) A Cipher is used by one call at a time and re-initialised for each
+// message; one SecureRandom is shared, it is thread-safe. See PaymentCipherBenchmark.
+// Output is "<keyId>:<base64(nonce | ciphertext | tag)>".
+//
+// Every message gets a fresh random 12-byte nonce. Agents and restarts share the key with no
+// coordination, so no counter or instance prefix can be trusted to stay unique across them;
+// 96 random bits stay collision-safe for up to 2^32 messages per key, after which the key has
+// to be rotated.
+public class PaymentCipher {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    // Idle instances kept; more may exist while busy, the extras are dropped on return
+    public static final int POOL_SIZE = Integer.getInteger("crs.crypto.cipherPoolSize",
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    private final KeyProvider keys;
+    private final BlockingQueue<Cipher> idle;
+    private final SecureRandom random = new SecureRandom();
+
+    // Metrics
+    private final AtomicLong encryptions = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+
+    public PaymentCipher(KeyProvider keys) {
+        this(keys, POOL_SIZE);
+    }
+
+    public PaymentCipher(KeyProvider keys, int poolSize) {
+        this.keys = keys;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    public String encrypt(String plaintext) throws GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+
+        Cipher cipher = acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, keys.currentKey(), new GCMParameterSpec(TAG_BITS, nonce));
+            byte[] input = plaintext.getBytes(StandardCharsets.UTF_8);
+            byte[] output = new byte[NONCE_BYTES + cipher.getOutputSize(input.length)];
+            System.arraycopy(nonce, 0, output, 0, NONCE_BYTES);
+            cipher.doFinal(input, 0, input.length, output, NONCE_BYTES);
+            encryptions.incrementAndGet();
+            return keys.currentKeyId() + ":" + Base64.getEncoder().encodeToString(output);
+        } finally {
+            idle.offer(cipher);
+        }
+    }
+
+    public String decrypt(String encrypted) throws GeneralSecurityException {
+        int separator = encrypted.indexOf(':');
+        if (separator < 0) {
+            throw new GeneralSecurityException("Missing key id");
+        }
+        SecretKey key = keys.key(encrypted.substring(0, separator));
+        if (key == null) {
+            throw new GeneralSecurityException("Unknown key id " + encrypted.substring(0, separator));
+        }
+
+        byte[] data = Base64.getDecoder().decode(encrypted.substring(separator + 1));
+        Cipher cipher = acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, 0, NONCE_BYTES));
+            return new String(cipher.doFinal(data, NONCE_BYTES, data.length - NONCE_BYTES), StandardCharsets.UTF_8);
+        } finally {
+            // Every use starts with init(), so a failed doFinal leaves nothing behind
+            idle.offer(cipher);
+        }
+    }
+
+    private Cipher acquire() throws GeneralSecurityException {
+        Cipher cipher = idle.poll();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            created.incrementAndGet();
+        }
+        return cipher;
+    }
+
+    // Metrics
+    public long getEncryptionCount() { return encryptions.get(); }
+    // Cipher instances created; stays near the pool size once it has warmed up
+    public long getCreatedCount() { return created.get(); }
+    public int getIdleCount() { return idle.size(); }
+}
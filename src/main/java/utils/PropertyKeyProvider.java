@@ -0,0 +1,67 @@
+package utils;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads AES keys from the environment or system properties, never from source:
+//   CRS_PAYMENT_KEY / -Dcrs.crypto.paymentKey         base64 key (16, 24 or 32 bytes)
+//   CRS_PAYMENT_KEY_ID / -Dcrs.crypto.paymentKeyId    its id (default "k1")
+// Retired keys stay readable as -Dcrs.crypto.key.<id>=<base64>. Without a configured key an
+// ephemeral one is generated, which is only fit for development: data encrypted with it cannot
+// be read after a restart.
+public class PropertyKeyProvider implements KeyProvider {
+    private final String currentId;
+    private final SecretKey current;
+    private final Map<String, SecretKey> keys = new HashMap<>();
+
+    public PropertyKeyProvider() {
+        String id = setting("CRS_PAYMENT_KEY_ID", "crs.crypto.paymentKeyId");
+        String encoded = setting("CRS_PAYMENT_KEY", "crs.crypto.paymentKey");
+        this.currentId = id != null ? id : "k1";
+        this.current = encoded != null ? decode(encoded) : generate();
+
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("crs.crypto.key.")) {
+                keys.put(name.substring("crs.crypto.key.".length()), decode(System.getProperty(name)));
+            }
+        }
+        keys.put(currentId, current);
+    }
+
+    @Override
+    public String currentKeyId() { return currentId; }
+
+    @Override
+    public SecretKey currentKey() { return current; }
+
+    @Override
+    public SecretKey key(String keyId) { return keys.get(keyId); }
+
+    private static String setting(String env, String property) {
+        String value = System.getProperty(property);
+        return value != null ? value : System.getenv(env);
+    }
+
+    private static SecretKey decode(String encoded) {
+        byte[] bytes = Base64.getDecoder().decode(encoded.trim());
+        if (bytes.length != 16 && bytes.length != 24 && bytes.length != 32) {
+            throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes, got " + bytes.length);
+        }
+        return new SecretKeySpec(bytes, "AES");
+    }
+
+    private static SecretKey generate() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            return generator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("AES not available", e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package utils;
+
+// Caps retries (and hedged requests) at a fraction of the original requests, so that when a
+// gateway fails every caller retrying cannot multiply the load on it. Every request deposits
+// ratio tokens and every retry spends one; the balance never exceeds reserve, which allows
+// short bursts of retries while traffic is low. With ratio 0.1, sustained load is at most
+// 1.1x the request rate however many attempts the retry policy allows.
+public class RetryBudget {
+    private final String name;
+    private final double ratio;
+    private final double reserve;
+
+    private double balance;
+    private long deposits;
+    private long withdrawals;
+    private long exhausted;
+
+    public RetryBudget(String name, double ratio, int reserve) {
+        this.name = name;
+        this.ratio = ratio;
+        this.reserve = Math.max(1, reserve);
+        this.balance = this.reserve;
+    }
+
+    // Call once per original request
+    public synchronized void deposit() {
+        deposits++;
+        balance = Math.min(reserve, balance + ratio);
+    }
+
+    // Call before each retry or hedge; false means skip it
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            exhausted++;
+            return false;
+        }
+        balance -= 1;
+        withdrawals++;
+        return true;
+    }
+
+    public String getName() { return name; }
+    public synchronized double getBalance() { return balance; }
+    public synchronized long getWithdrawals() { return withdrawals; }
+    public synchronized long getExhaustedCount() { return exhausted; }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("RetryBudget{name='%s', ratio=%s, balance=%.1f, requests=%d, retries=%d, exhausted=%d}",
+                name, ratio, balance, deposits, withdrawals, exhausted);
+    }
+}
@@ -0,0 +1,48 @@
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Exponential backoff with full jitter: before retry n the caller sleeps a random time in
+// [0, min(maxDelayMs, baseDelayMs * 2^(n-1))], so callers that failed together do not retry
+// together. Only errors and timeouts are retried; a decline is an answer.
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    // attempt counts from 1; false once the attempts are used up or the outcome is final
+    public boolean shouldRetry(int attempt, GatewayClient.Outcome outcome) {
+        return attempt < maxAttempts
+                && (outcome == GatewayClient.Outcome.ERROR || outcome == GatewayClient.Outcome.TIMEOUT);
+    }
+
+    public long backoffMs(int retry) {
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(retry - 1, 30));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    // Sleeps for the backoff; false if interrupted, in which case the caller should stop
+    public boolean backoff(int retry) {
+        try {
+            Thread.sleep(backoffMs(retry));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public int getMaxAttempts() { return maxAttempts; }
+
+    @Override
+    public String toString() {
+        return String.format("RetryPolicy{maxAttempts=%d, baseDelayMs=%d, maxDelayMs=%d}",
+                maxAttempts, baseDelayMs, maxDelayMs);
+    }
+}
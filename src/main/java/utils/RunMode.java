@@ -0,0 +1,40 @@
+package utils;
+
+import java.awt.GraphicsEnvironment;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+// Run-mode switches shared by all agents. Headless mode is selected with -Dcrs.headless=true,
+// a "--headless" agent argument, or automatically when there is no display; agents then start
+// without their Swing windows and a window can be attached later with attachGui().
+public class RunMode {
+    private static final Logger LOG = Logger.getLogger(RunMode.class.getName());
+    public static final String HEADLESS_ARG = "--headless";
+    public static final boolean HEADLESS_PROPERTY = Boolean.getBoolean("crs.headless");
+
+    public static boolean isHeadless(Object[] args) {
+        if (HEADLESS_PROPERTY || !canShowGui()) {
+            return true;
+        }
+        if (args != null) {
+            for (Object arg : args) {
+                if (HEADLESS_ARG.equals(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static boolean canShowGui() {
+        return !GraphicsEnvironment.isHeadless();
+    }
+
+    // StartupBenchmark (test sources) reads these lines to compare the two modes
+    public static void logStartup(String agentName, long startNanos, boolean headless) {
+        LOG.info(String.format(Locale.ROOT, "%s started in %.1f ms (%s)", agentName,
+                (System.nanoTime() - startNanos) / 1_000_000.0, headless ? "headless" : "with GUI"));
+    }
+
+    private RunMode() {}
+}
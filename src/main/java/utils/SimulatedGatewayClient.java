@@ -0,0 +1,215 @@
+package utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// In-process stand-in for the payment gateways, for development and load tests without a
+// network. Each call sleeps for a latency drawn from the gateway's profile and then succeeds,
+// declines or fails with the profile's rates; a latency at or above the timeout becomes a
+// TIMEOUT after waiting the timeout.
+//
+// Profiles come from system properties. crs.gateway.sim.<setting> applies to every gateway and
+// crs.gateway.sim.<gatewayId>.<setting> overrides it for one:
+//
+//   latency=fixed:0                 fixed:<ms> | uniform:<min>:<max> | normal:<mean>:<stddev>
+//                                   | lognormal:<median>:<sigma>
+//   declineRate=0.05                authorizations and refunds only
+//   errorRate=0
+//   timeoutMs=5000
+//   brownout.periodMs=0             0 disables brownouts; otherwise one starts every period
+//   brownout.durationMs=10000
+//   brownout.latencyFactor=10       latency multiplier while it lasts
+//   brownout.errorRate=0.5          error rate while it lasts, if higher than errorRate
+//
+// The defaults reproduce the old behaviour: no latency, 95% of payments approved.
+//
+// Like a real gateway it remembers what it decided for each idempotency key, so a retry gets
+// the original answer, and a call that times out on the client side may still have gone
+// through.
+public class SimulatedGatewayClient implements GatewayClient {
+    private static final String PREFIX = "crs.gateway.sim.";
+
+    // Latency in ms drawn per call
+    static class LatencyDistribution {
+        private final String kind;
+        private final double a;
+        private final double b;
+
+        private LatencyDistribution(String kind, double a, double b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        static LatencyDistribution parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            try {
+                switch (parts[0]) {
+                    case "fixed":
+                        return new LatencyDistribution(parts[0], Double.parseDouble(parts[1]), 0);
+                    case "uniform":
+                    case "normal":
+                    case "lognormal":
+                        return new LatencyDistribution(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                    default:
+                        throw new IllegalArgumentException("Unknown latency distribution '" + spec + "'");
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed latency distribution '" + spec + "'", e);
+            }
+        }
+
+        long sample(ThreadLocalRandom random) {
+            double value;
+            switch (kind) {
+                case "uniform":
+                    value = a + random.nextDouble() * (b - a);
+                    break;
+                case "normal":
+                    value = a + random.nextGaussian() * b;
+                    break;
+                case "lognormal":
+                    value = a * Math.exp(random.nextGaussian() * b);
+                    break;
+                default:
+                    value = a;
+            }
+            return Math.max(0, Math.round(value));
+        }
+
+        @Override
+        public String toString() {
+            return kind.equals("fixed") ? kind + ":" + a : kind + ":" + a + ":" + b;
+        }
+    }
+
+    static class Profile {
+        final LatencyDistribution latency;
+        final double declineRate;
+        final double errorRate;
+        final long timeoutMs;
+        final long brownoutPeriodMs;
+        final long brownoutDurationMs;
+        final double brownoutLatencyFactor;
+        final double brownoutErrorRate;
+
+        Profile(String gatewayId) {
+            latency = LatencyDistribution.parse(setting(gatewayId, "latency", "fixed:0"));
+            declineRate = Double.parseDouble(setting(gatewayId, "declineRate", "0.05"));
+            errorRate = Double.parseDouble(setting(gatewayId, "errorRate", "0"));
+            timeoutMs = Long.parseLong(setting(gatewayId, "timeoutMs", "5000"));
+            brownoutPeriodMs = Long.parseLong(setting(gatewayId, "brownout.periodMs", "0"));
+            brownoutDurationMs = Long.parseLong(setting(gatewayId, "brownout.durationMs", "10000"));
+            brownoutLatencyFactor = Double.parseDouble(setting(gatewayId, "brownout.latencyFactor", "10"));
+            brownoutErrorRate = Double.parseDouble(setting(gatewayId, "brownout.errorRate", "0.5"));
+        }
+
+        private static String setting(String gatewayId, String name, String defaultValue) {
+            String value = System.getProperty(PREFIX + gatewayId + "." + name);
+            return value != null ? value : System.getProperty(PREFIX + name, defaultValue);
+        }
+
+        // Brownouts start at the end of each period, counted from when the client was created
+        boolean inBrownout(long elapsedMs) {
+            return brownoutPeriodMs > 0 && elapsedMs % brownoutPeriodMs >= brownoutPeriodMs - brownoutDurationMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{latency=%s, declineRate=%s, errorRate=%s, timeoutMs=%d, brownout=%s}",
+                    latency, declineRate, errorRate, timeoutMs,
+                    brownoutPeriodMs > 0 ? brownoutDurationMs + "ms every " + brownoutPeriodMs + "ms" : "off");
+        }
+    }
+
+    private final long startMillis = System.currentTimeMillis();
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+    private final AtomicLongArray outcomes = new AtomicLongArray(Outcome.values().length);
+    private final TtlCache<String, Outcome> decisions = new TtlCache<>("simulatedGateway.decisions", 100000,
+            24 * 60 * 60 * 1000L);
+    private final AtomicLong replayed = new AtomicLong();
+
+    @Override
+    public Outcome authorize(String gatewayId, String idempotencyKey, String encryptedPayment, double amount) {
+        return call(gatewayId, "authorize:" + idempotencyKey, true);
+    }
+
+    @Override
+    public Outcome refund(String gatewayId, String transactionId) {
+        return call(gatewayId, "refund:" + transactionId, true);
+    }
+
+    @Override
+    public Outcome checkStatus(String gatewayId) {
+        return call(gatewayId, null, false);
+    }
+
+    private Outcome call(String gatewayId, String key, boolean canDecline) {
+        Outcome outcome = simulate(profile(gatewayId), key == null ? null : gatewayId + "|" + key, canDecline);
+        outcomes.incrementAndGet(outcome.ordinal());
+        return outcome;
+    }
+
+    private Outcome simulate(Profile profile, String key, boolean canDecline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean brownout = profile.inBrownout(System.currentTimeMillis() - startMillis);
+        long latencyMs = profile.latency.sample(random);
+        double errorRate = profile.errorRate;
+        if (brownout) {
+            latencyMs = Math.round(latencyMs * profile.brownoutLatencyFactor);
+            errorRate = Math.max(errorRate, profile.brownoutErrorRate);
+        }
+
+        // An error means the request was not processed; anything else is remembered
+        Outcome decision;
+        double roll = random.nextDouble();
+        Outcome previous = key != null ? decisions.get(key) : null;
+        if (roll < errorRate) {
+            decision = Outcome.ERROR;
+        } else if (previous != null) {
+            decision = previous;
+            replayed.incrementAndGet();
+        } else {
+            decision = canDecline && roll < errorRate + profile.declineRate ? Outcome.DECLINED : Outcome.OK;
+            if (key != null) {
+                decisions.put(key, decision);
+            }
+        }
+
+        try {
+            if (latencyMs >= profile.timeoutMs) {
+                Thread.sleep(profile.timeoutMs);
+                return Outcome.TIMEOUT;
+            }
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.ERROR;
+        }
+        return decision;
+    }
+
+    // Read on first use of each gateway
+    private Profile profile(String gatewayId) {
+        return profiles.computeIfAbsent(gatewayId, Profile::new);
+    }
+
+    // Metrics
+    public long getCount(Outcome outcome) { return outcomes.get(outcome.ordinal()); }
+    // Calls answered from an earlier decision for the same key
+    public long getReplayedCount() { return replayed.get(); }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SimulatedGatewayClient{");
+        for (Outcome outcome : Outcome.values()) {
+            sb.append(outcome).append('=').append(outcomes.get(outcome.ordinal())).append(", ");
+        }
+        return sb.append("replayed=").append(replayed.get()).append(", profiles=").append(profiles).append('}').toString();
+    }
+}
@@ -0,0 +1,25 @@
+package utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Executors for blocking work handed off from agent threads. On Java 19+ a virtual thread per
+// task is used (looked up reflectively so the code still builds for older releases); otherwise,
+// or with -Dcrs.agent.virtualThreads=false, a fixed pool of daemon platform threads.
+public class WorkerExecutors {
+    public static final boolean VIRTUAL_THREADS = Boolean.parseBoolean(
+            System.getProperty("crs.agent.virtualThreads", "true"));
+
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        if (VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Older JDK (or preview not enabled): fall back to platform threads
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), new DaemonThreadFactory(name));
+    }
+
+    private WorkerExecutors() {}
+}
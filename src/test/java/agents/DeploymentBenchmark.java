@@ -0,0 +1,85 @@
+package agents;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Throughput comparison of deployment descriptors, not run by the test suite:
+//
+//   mvn -B test-compile
+//   java -cp target/classes:target/test-classes:<jade and mysql jars> agents.DeploymentBenchmark \
+//        [deploy/single-container.properties deploy/multi-jvm.properties ...]
+//
+// Starts the application headless once per descriptor, in its own JVM and one after another
+// (they share the main port), waits for the LoadGeneratorAgent's report and stops it again.
+// Every descriptor should carry the same loadgen.* settings. Needs the payments database the
+// agents normally use; crs.payment.shards and crs.benchmark.timeoutMinutes are passed on.
+public class DeploymentBenchmark {
+    private static final Pattern THROUGHPUT = Pattern.compile("= (\\d+) req/s");
+
+    public static void main(String[] args) throws Exception {
+        String[] descriptors = args.length > 0 ? args
+                : new String[]{"deploy/single-container.properties", "deploy/multi-jvm.properties"};
+        int shards = Integer.getInteger("crs.payment.shards", PaymentRouter.SHARDS);
+        long timeoutMinutes = Integer.getInteger("crs.benchmark.timeoutMinutes", 10);
+
+        Map<String, Long> results = new LinkedHashMap<>();
+        for (String descriptor : descriptors) {
+            String report = run(descriptor, shards, timeoutMinutes);
+            Matcher matcher = report != null ? THROUGHPUT.matcher(report) : null;
+            results.put(descriptor, matcher != null && matcher.find() ? Long.parseLong(matcher.group(1)) : -1L);
+        }
+
+        long baseline = results.values().iterator().next();
+        System.out.printf("%-45s %10s %8s%n", "descriptor", "req/s", "ratio");
+        for (Map.Entry<String, Long> result : results.entrySet()) {
+            if (result.getValue() < 0) {
+                System.out.printf("%-45s %10s %8s%n", result.getKey(), "no report", "-");
+            } else {
+                System.out.printf("%-45s %10d %8.2f%n", result.getKey(), result.getValue(),
+                        baseline > 0 ? (double) result.getValue() / baseline : Double.NaN);
+            }
+        }
+    }
+
+    // Returns the LoadGenerator report line, or null if the run ended or timed out without one
+    private static String run(String descriptor, int shards, long timeoutMinutes) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dcrs.payment.shards=" + shards);
+        command.add("CarRentalApplication");
+        command.add("--deployment=" + descriptor);
+        command.add("--headless");
+        System.out.println("Running " + descriptor);
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(timeoutMinutes);
+        String report = null;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while (report == null && System.nanoTime() < deadline && (line = out.readLine()) != null) {
+                if (line.startsWith("LoadGenerator [")) {
+                    report = line;
+                    System.out.println("  " + line);
+                }
+            }
+        } finally {
+            // The application's shutdown hook stops the container JVMs it launched
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.descendants().forEach(ProcessHandle::destroyForcibly);
+                process.destroyForcibly().waitFor();
+            }
+        }
+        return report;
+    }
+}
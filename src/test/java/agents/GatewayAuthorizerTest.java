@@ -0,0 +1,209 @@
+package agents;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import utils.CircuitBreaker;
+import utils.GatewayClient;
+import utils.GatewayConstants;
+import utils.GatewaySelector;
+import utils.RetryBudget;
+import utils.RetryPolicy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GatewayAuthorizerTest {
+    private static final String KEY = "tx-1";
+
+    private final ScriptedGateways gateways = new ScriptedGateways();
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final GatewaySelector selector = new GatewaySelector(this::breaker);
+    private int breakerThreshold = 10;
+    private GatewayAuthorizer authorizer;
+
+    // Each gateway answers from its script, one (outcome, delay) per call; OK once it runs out
+    private static class ScriptedGateways implements GatewayClient {
+        private final Map<String, Deque<Object[]>> scripts = new HashMap<>();
+        final List<String> authorizations = Collections.synchronizedList(new ArrayList<>());
+        final List<String> refunds = Collections.synchronizedList(new ArrayList<>());
+
+        ScriptedGateways answer(String gatewayId, Outcome outcome, long delayMs) {
+            synchronized (scripts) {
+                scripts.computeIfAbsent(gatewayId, id -> new ArrayDeque<>()).add(new Object[]{outcome, delayMs});
+            }
+            return this;
+        }
+
+        @Override
+        public Outcome authorize(String gatewayId, String idempotencyKey, String encryptedPayment, double amount) {
+            authorizations.add(gatewayId + ":" + idempotencyKey);
+            Object[] next;
+            synchronized (scripts) {
+                Deque<Object[]> script = scripts.get(gatewayId);
+                next = script == null || script.isEmpty() ? new Object[]{Outcome.OK, 0L} : script.poll();
+            }
+            try {
+                Thread.sleep((Long) next[1]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return (Outcome) next[0];
+        }
+
+        @Override
+        public Outcome refund(String gatewayId, String transactionId) {
+            refunds.add(gatewayId + ":" + transactionId);
+            return Outcome.OK;
+        }
+
+        @Override
+        public Outcome checkStatus(String gatewayId) {
+            return Outcome.OK;
+        }
+    }
+
+    private CircuitBreaker breaker(String gatewayId) {
+        return breakers.computeIfAbsent(gatewayId, id -> new CircuitBreaker(id, breakerThreshold, 60000));
+    }
+
+    private GatewayAuthorizer authorizer(int hedgeThreads) {
+        selector.updateStatus("stripe", GatewayConstants.STATUS_ACTIVE);
+        selector.updateStatus("paypal", GatewayConstants.STATUS_ACTIVE);
+        selector.markLoaded();
+        authorizer = new GatewayAuthorizer(gateways, selector, this::breaker, new RetryPolicy(3, 1, 5),
+                new RetryBudget("test", 1.0, 100), (gatewayId, type, data) -> { },
+                hedgeThreads, 95, 5, 1);
+        return authorizer;
+    }
+
+    // Gives the gateway a latency history of 100ms calls, so its p95 (a histogram bucket
+    // bound) is well below a 600ms call and well above a call that returns at once
+    private void warmUp(String gatewayId) {
+        for (int i = 0; i < 20; i++) {
+            selector.end(gatewayId, 100, true);
+        }
+    }
+
+    @AfterEach
+    void close() {
+        if (authorizer != null) {
+            authorizer.close();
+        }
+    }
+
+    @Test
+    void retriesATimeoutAtTheSameGatewayWithTheSameKey() {
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 0);
+
+        GatewayAuthorizer.Attempt result = authorizer(0).authorize("stripe", KEY, "data", 10.0);
+
+        assertEquals(GatewayClient.Outcome.OK, result.outcome);
+        assertEquals("stripe", result.gatewayId);
+        assertEquals(List.of("stripe:tx-1", "stripe:tx-1"), gateways.authorizations);
+        assertTrue(gateways.refunds.isEmpty());
+    }
+
+    @Test
+    void failsOverAfterAnError() {
+        breakerThreshold = 1;
+        gateways.answer("stripe", GatewayClient.Outcome.ERROR, 0);
+
+        GatewayAuthorizer.Attempt result = authorizer(0).authorize("stripe", KEY, "data", 10.0);
+
+        assertEquals(GatewayClient.Outcome.OK, result.outcome);
+        assertEquals("paypal", result.gatewayId);
+    }
+
+    @Test
+    void staysAtTheGatewayOnceACallTimedOut() {
+        breakerThreshold = 1;
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 0)
+                .answer("stripe", GatewayClient.Outcome.ERROR, 0)
+                .answer("stripe", GatewayClient.Outcome.ERROR, 0);
+
+        GatewayAuthorizer.Attempt result = authorizer(0).authorize("stripe", KEY, "data", 10.0);
+        authorizer.close();
+
+        // The open circuit stops the later calls, but the payment never moves to paypal
+        assertEquals(GatewayClient.Outcome.TIMEOUT, result.outcome);
+        assertEquals("stripe", result.gatewayId);
+        assertEquals(List.of("stripe:tx-1"), gateways.authorizations);
+        assertEquals(List.of("stripe:tx-1"), gateways.refunds);
+    }
+
+    @Test
+    void voidsAnAuthorizationWhoseOutcomeStaysUnknown() {
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 0)
+                .answer("stripe", GatewayClient.Outcome.ERROR, 0)
+                .answer("stripe", GatewayClient.Outcome.TIMEOUT, 0);
+
+        GatewayAuthorizer.Attempt result = authorizer(0).authorize("stripe", KEY, "data", 10.0);
+        authorizer.close();
+
+        assertEquals(GatewayClient.Outcome.TIMEOUT, result.outcome);
+        assertEquals(List.of("stripe:tx-1"), gateways.refunds);
+        assertEquals(1, authorizer.getUnknownOutcomeCount());
+        assertEquals(1, authorizer.getVoidedCount());
+    }
+
+    @Test
+    void reportsADeclineAfterATimeoutAsADecline() {
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 0)
+                .answer("stripe", GatewayClient.Outcome.DECLINED, 0);
+
+        GatewayAuthorizer.Attempt result = authorizer(0).authorize("stripe", KEY, "data", 10.0);
+        authorizer.close();
+
+        assertEquals(GatewayClient.Outcome.DECLINED, result.outcome);
+        assertTrue(gateways.refunds.isEmpty());
+    }
+
+    @Test
+    void hedgesASlowCallAndVoidsTheLoser() {
+        warmUp("stripe");
+        gateways.answer("stripe", GatewayClient.Outcome.OK, 600);
+
+        GatewayAuthorizer.Attempt result = authorizer(2).authorize("stripe", KEY, "data", 10.0);
+        authorizer.close();
+
+        assertEquals(GatewayClient.Outcome.OK, result.outcome);
+        assertEquals("paypal", result.gatewayId);
+        assertEquals(1, authorizer.getHedgeWinCount());
+        assertEquals(List.of("stripe:tx-1"), gateways.refunds);
+    }
+
+    @Test
+    void voidsAHedgeLoserThatTimedOut() {
+        warmUp("stripe");
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 600);
+
+        GatewayAuthorizer.Attempt result = authorizer(2).authorize("stripe", KEY, "data", 10.0);
+        authorizer.close();
+
+        assertEquals("paypal", result.gatewayId);
+        assertEquals(List.of("stripe:tx-1"), gateways.refunds);
+    }
+
+    @Test
+    void doesNotHedgeOnceACallTimedOut() {
+        warmUp("stripe");
+        gateways.answer("stripe", GatewayClient.Outcome.TIMEOUT, 0)
+                .answer("stripe", GatewayClient.Outcome.OK, 600);
+
+        GatewayAuthorizer.Attempt result = authorizer(2).authorize("stripe", KEY, "data", 10.0);
+
+        assertEquals(GatewayClient.Outcome.OK, result.outcome);
+        assertEquals("stripe", result.gatewayId);
+        assertEquals(0, authorizer.getHedgedCount());
+        assertEquals(List.of("stripe:tx-1", "stripe:tx-1"), gateways.authorizations);
+    }
+}
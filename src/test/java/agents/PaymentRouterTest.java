@@ -0,0 +1,32 @@
+package agents;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PaymentRouterTest {
+
+    @Test
+    void buildsTheSameRingFromConfigEverywhere() {
+        PaymentRouter first = new PaymentRouter(4);
+        PaymentRouter second = new PaymentRouter(4);
+
+        Set<String> shards = new HashSet<>();
+        for (int bookingId = 0; bookingId < 1000; bookingId++) {
+            assertEquals(first.shardFor(bookingId), second.shardFor(bookingId));
+            shards.add(first.shardFor(bookingId));
+        }
+        assertEquals(Set.of("PaymentAgent-0", "PaymentAgent-1", "PaymentAgent-2", "PaymentAgent-3"), shards);
+    }
+
+    @Test
+    void routesByBookingWhenKnownAndByPaymentOtherwise() {
+        PaymentRouter router = new PaymentRouter(4);
+
+        assertEquals(router.shardFor(42), router.shardFor(7, 42));
+        assertEquals(router.shardFor(7), router.shardFor(7, null));
+    }
+}
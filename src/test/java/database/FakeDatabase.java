@@ -0,0 +1,219 @@
+package database;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+// In-memory JDBC stand-in for unit tests. Every statement execution, commit and rollback is
+// recorded as a Call and handed to a Script, which answers the way the database would:
+// rows for a query, an update count, or an SQLException.
+class FakeDatabase {
+    static class Call {
+        final String method;
+        final String sql;
+        final List<Object> params;
+        final List<List<Object>> batch;
+
+        Call(String method, String sql, List<Object> params, List<List<Object>> batch) {
+            this.method = method;
+            this.sql = sql;
+            this.params = params;
+            this.batch = batch;
+        }
+
+        Object param(int index) {
+            return params.get(index - 1);
+        }
+
+        @Override
+        public String toString() {
+            return method + (sql != null ? " " + sql : "") + " " + (batch != null ? batch : params);
+        }
+    }
+
+    // Returns the answer for a call, or null for the default: no rows, one row updated,
+    // every batch row updated
+    interface Script {
+        Object answer(Call call) throws SQLException;
+    }
+
+    private final Script script;
+    private final List<Call> calls = Collections.synchronizedList(new ArrayList<>());
+
+    FakeDatabase(Script script) {
+        this.script = script;
+    }
+
+    static SQLException duplicateKey() {
+        return new SQLException("Duplicate entry", "23000", 1062);
+    }
+
+    static List<Map<String, Object>> row(Object... namesAndValues) {
+        Map<String, Object> row = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            row.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return Collections.singletonList(row);
+    }
+
+    List<Call> calls() {
+        synchronized (calls) {
+            return new ArrayList<>(calls);
+        }
+    }
+
+    long count(Predicate<Call> filter) {
+        return calls().stream().filter(filter).count();
+    }
+
+    long count(String method) {
+        return count(call -> call.method.equals(method));
+    }
+
+    DataSource dataSource() {
+        return proxy(DataSource.class, (self, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                return connection();
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    Connection connection() {
+        boolean[] autoCommit = {true};
+        return proxy(Connection.class, (self, method, args) -> {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return statement((String) args[0]);
+                case "getAutoCommit":
+                    return autoCommit[0];
+                case "setAutoCommit":
+                    autoCommit[0] = (Boolean) args[0];
+                    return null;
+                case "commit":
+                case "rollback":
+                    execute(new Call(method.getName(), null, Collections.emptyList(), null));
+                    return null;
+                case "isValid":
+                    return true;
+                case "isClosed":
+                    return false;
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private PreparedStatement statement(String sql) {
+        List<Object> params = new ArrayList<>();
+        List<List<Object>> batch = new ArrayList<>();
+        return proxy(PreparedStatement.class, (self, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args.length >= 2 && args[0] instanceof Integer) {
+                int index = (Integer) args[0];
+                while (params.size() < index) {
+                    params.add(null);
+                }
+                params.set(index - 1, name.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (name) {
+                case "addBatch":
+                    batch.add(new ArrayList<>(params));
+                    return null;
+                case "clearBatch":
+                    batch.clear();
+                    return null;
+                case "executeBatch": {
+                    Object answer = execute(new Call(name, sql, Collections.emptyList(), new ArrayList<>(batch)));
+                    int[] counts = new int[batch.size()];
+                    Arrays.fill(counts, 1);
+                    batch.clear();
+                    return answer != null ? answer : counts;
+                }
+                case "executeUpdate": {
+                    Object answer = execute(new Call(name, sql, new ArrayList<>(params), null));
+                    return answer != null ? answer : 1;
+                }
+                case "executeQuery": {
+                    Object answer = execute(new Call(name, sql, new ArrayList<>(params), null));
+                    @SuppressWarnings("unchecked")
+                    List<Map<String, Object>> rows = answer != null
+                            ? (List<Map<String, Object>>) answer : Collections.emptyList();
+                    return resultSet(rows);
+                }
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        });
+    }
+
+    private static ResultSet resultSet(List<Map<String, Object>> rows) {
+        int[] position = {-1};
+        return proxy(ResultSet.class, (self, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++position[0] < rows.size();
+                case "close":
+                    return null;
+                case "getInt":
+                case "getLong":
+                case "getString":
+                case "getTimestamp": {
+                    Object value = rows.get(position[0]).get((String) args[0]);
+                    if (value == null && method.getName().startsWith("getInt")) {
+                        return 0;
+                    }
+                    if (value == null && method.getName().equals("getLong")) {
+                        return 0L;
+                    }
+                    return value;
+                }
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Object execute(Call call) throws SQLException {
+        calls.add(call);
+        return script.answer(call);
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(self, method, args);
+                    }
+                    return handler.invoke(self, method, args == null ? new Object[0] : args);
+                }));
+    }
+
+    private static Object objectMethod(Object self, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return self == args[0];
+            case "hashCode":
+                return System.identityHashCode(self);
+            default:
+                return "FakeDatabase$" + self.getClass().getInterfaces()[0].getSimpleName();
+        }
+    }
+}
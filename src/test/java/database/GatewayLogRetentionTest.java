@@ -0,0 +1,54 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GatewayLogRetentionTest {
+    // 2024-02-01 00:00:00 in a session zone one hour ahead of UTC
+    private static final GatewayLogRetention.Cutoff FEB_2024 =
+            new GatewayLogRetention.Cutoff(LocalDateTime.of(2024, 2, 1, 0, 0), 1706745600L - 3600);
+    private static final GatewayLogRetention.Cutoff JUST_BEFORE_FEB_2024 =
+            new GatewayLogRetention.Cutoff(LocalDateTime.of(2024, 1, 31, 23, 59, 59), 1706745600L - 3601);
+
+    private static boolean expired(String method, String expression, String description) {
+        return GatewayLogRetention.isExpired(method, expression, description, FEB_2024);
+    }
+
+    @Test
+    void comparesRangeColumnsDatesAsSessionTime() {
+        assertTrue(expired("RANGE COLUMNS", "`created_at`", "'2024-02-01'"));
+        assertTrue(expired("RANGE COLUMNS", "created_at", "'2024-02-01 00:00:00'"));
+        assertTrue(expired("RANGE COLUMNS", "created_at", "'2024-02-01 00:00:00.000000'"));
+        assertFalse(GatewayLogRetention.isExpired("RANGE COLUMNS", "`created_at`", "'2024-02-01'", JUST_BEFORE_FEB_2024));
+    }
+
+    @Test
+    void comparesToDaysBoundsAsSessionTime() {
+        assertTrue(expired("RANGE", "to_days(`created_at`)", "739282"));
+        assertTrue(expired("RANGE", "TO_DAYS( created_at )", "739282"));
+        assertFalse(expired("RANGE", "to_days(`created_at`)", "739283"));
+        assertFalse(GatewayLogRetention.isExpired("RANGE", "to_days(`created_at`)", "739282", JUST_BEFORE_FEB_2024));
+    }
+
+    @Test
+    void comparesUnixTimestampBoundsAsInstants() {
+        // Midnight UTC is 01:00 in the session zone, after the cutoff
+        assertFalse(expired("RANGE", "unix_timestamp(`created_at`)", "1706745600"));
+        assertTrue(expired("RANGE", "unix_timestamp(`created_at`)", "1706742000"));
+    }
+
+    @Test
+    void ignoresPartitionsItCannotInterpret() {
+        assertFalse(expired("RANGE", "to_days(`created_at`)", "MAXVALUE"));
+        assertFalse(expired("RANGE COLUMNS", "`gateway_id`", "'m'"));
+        assertFalse(expired("RANGE", "year(`created_at`)", "2024"));
+        assertFalse(expired("HASH", "`log_id`", null));
+        assertFalse(expired("RANGE", "to_days(`created_at`)", "soon"));
+        assertFalse(expired("RANGE COLUMNS", "`created_at`", "'not a date'"));
+        assertFalse(expired(null, null, null));
+    }
+}
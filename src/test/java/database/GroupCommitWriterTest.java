@@ -0,0 +1,147 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupCommitWriterTest {
+    private static final String INSERT = "INSERT INTO rows (value) VALUES (?)";
+
+    private static GroupCommitWriter<String> writer(FakeDatabase db) {
+        return new GroupCommitWriter<>("test", db.dataSource(), INSERT,
+                (stmt, value) -> stmt.setString(1, value), 5, 16);
+    }
+
+    @Test
+    void writesTheBatchInOneCommit() throws SQLException {
+        FakeDatabase db = new FakeDatabase(call -> null);
+        try (GroupCommitWriter<String> writer = writer(db)) {
+            boolean[] results = writer.writeBatch(db.connection(), Arrays.asList("a", "b", "c"));
+
+            assertArrayEquals(new boolean[]{true, true, true}, results);
+            assertEquals(1, db.count("executeBatch"));
+            assertEquals(1, db.count("commit"));
+            assertEquals(0, db.count("executeUpdate"));
+        }
+    }
+
+    @Test
+    void replaysRowsWhenTheBatchFailsBeforeCommit() throws SQLException {
+        FakeDatabase db = new FakeDatabase(call -> {
+            if (call.method.equals("executeBatch")) {
+                throw new SQLException("Data too long");
+            }
+            if (call.method.equals("executeUpdate") && "bad".equals(call.param(1))) {
+                throw new SQLException("Data too long");
+            }
+            return null;
+        });
+        try (GroupCommitWriter<String> writer = writer(db)) {
+            boolean[] results = writer.writeBatch(db.connection(), Arrays.asList("a", "bad", "c"));
+
+            assertArrayEquals(new boolean[]{true, false, true}, results);
+            assertEquals(1, db.count("rollback"));
+            assertEquals(3, db.count("executeUpdate"));
+            assertEquals(1, writer.getFallbackBatches());
+        }
+    }
+
+    @Test
+    void countsADuplicateOnReplayAsStored() throws SQLException {
+        FakeDatabase db = new FakeDatabase(call -> {
+            if (call.method.equals("executeBatch")) {
+                throw FakeDatabase.duplicateKey();
+            }
+            if (call.method.equals("executeUpdate") && "tx-1".equals(call.param(1))) {
+                throw FakeDatabase.duplicateKey();
+            }
+            return null;
+        });
+        try (GroupCommitWriter<String> writer = writer(db)) {
+            assertArrayEquals(new boolean[]{true, true},
+                    writer.writeBatch(db.connection(), Arrays.asList("tx-1", "tx-2")));
+        }
+    }
+
+    @Test
+    void doesNotReplayAFailedCommit() throws SQLException {
+        FakeDatabase db = new FakeDatabase(call -> {
+            if (call.method.equals("commit")) {
+                throw new SQLException("Communications link failure");
+            }
+            return null;
+        });
+        try (GroupCommitWriter<String> writer = writer(db)) {
+            boolean[] results = writer.writeBatch(db.connection(), Arrays.asList("a", "b"));
+
+            assertArrayEquals(new boolean[]{false, false}, results);
+            assertEquals(0, db.count("executeUpdate"));
+            assertEquals(1, writer.getUncertainBatches());
+            assertEquals(0, writer.getFallbackBatches());
+        }
+    }
+
+    @Test
+    void groupsConcurrentWrites() throws Exception {
+        FakeDatabase db = new FakeDatabase(call -> null);
+        try (GroupCommitWriter<String> writer = writer(db)) {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                results.add(writer.submit("row-" + i));
+            }
+            for (CompletableFuture<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(10, writer.getCommittedRows());
+            assertTrue(db.count("commit") < 10);
+            assertTrue(writer.write("one more"));
+        }
+    }
+
+    @Test
+    void failsWritesSubmittedAfterClose() throws Exception {
+        GroupCommitWriter<String> writer = writer(new FakeDatabase(call -> null));
+        writer.close();
+
+        CompletableFuture<Boolean> result = writer.submit("late");
+        assertTrue(result.isDone());
+        assertFalse(result.get());
+        assertFalse(writer.write("later"));
+    }
+
+    @Test
+    void completesEveryWriteRacingWithClose() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            GroupCommitWriter<String> writer = writer(new FakeDatabase(call -> null));
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            Thread submitter = new Thread(() -> {
+                for (int i = 0; i < 200; i++) {
+                    synchronized (results) {
+                        results.add(writer.submit("row-" + i));
+                    }
+                }
+            });
+            submitter.start();
+            writer.close();
+            submitter.join();
+
+            synchronized (results) {
+                for (CompletableFuture<Boolean> result : results) {
+                    // Committed or failed, but never left hanging
+                    result.get(5, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+}
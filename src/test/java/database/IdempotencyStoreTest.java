@@ -0,0 +1,203 @@
+package database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IdempotencyStoreTest {
+    private static final int INFORM = 7;
+    private static final IdempotencyStore.Policy KEEP_SUCCESS = reply -> reply.getContent().startsWith("SUCCESS");
+
+    private final AtomicInteger runs = new AtomicInteger();
+    private IdempotencyStore store;
+
+    @AfterEach
+    void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private IdempotencyStore.Reply run(String key, String content) throws Exception {
+        return store.execute(key, () -> {
+            runs.incrementAndGet();
+            return new IdempotencyStore.Reply(INFORM, content);
+        }, KEEP_SUCCESS);
+    }
+
+    private static boolean is(FakeDatabase.Call call, String method, String sqlStart) {
+        return call.method.equals(method) && call.sql.startsWith(sqlStart);
+    }
+
+    // The key already has a row with this status and age
+    private static FakeDatabase existingRow(String status, long ageMs) {
+        Timestamp createdAt = new Timestamp(System.currentTimeMillis() - ageMs);
+        AtomicBoolean reserved = new AtomicBoolean();
+        return new FakeDatabase(call -> {
+            if (is(call, "executeUpdate", "INSERT") && !reserved.getAndSet(true)) {
+                throw FakeDatabase.duplicateKey();
+            }
+            if (call.method.equals("executeQuery")) {
+                return FakeDatabase.row("status", status, "performative", INFORM, "reply", "SUCCESS:stored",
+                        "created_at", createdAt);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    void runsOnceAndReplaysTheKeptReply() throws Exception {
+        FakeDatabase db = new FakeDatabase(call -> null);
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertEquals("SUCCESS:1", run("PAY:k1", "SUCCESS:1").getContent());
+        assertEquals("SUCCESS:1", run("PAY:k1", "SUCCESS:2").getContent());
+
+        assertEquals(1, runs.get());
+        assertEquals(1, store.getStoredCount());
+        assertEquals(1, store.getReplayedFromMemoryCount());
+        assertEquals(1, db.count(call -> is(call, "executeUpdate", "INSERT")
+                && "test:PAY:k1".equals(call.param(1))));
+    }
+
+    @Test
+    void releasesTheKeyAfterAReplyThatIsNotKept() throws Exception {
+        FakeDatabase db = new FakeDatabase(call -> null);
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertEquals("FAILED", run("PAY:k1", "FAILED").getContent());
+        assertEquals("SUCCESS:2", run("PAY:k1", "SUCCESS:2").getContent());
+
+        assertEquals(2, runs.get());
+        assertEquals(1, store.getReleasedCount());
+        assertEquals(1, db.count(call -> is(call, "executeUpdate", "DELETE")));
+    }
+
+    @Test
+    void releasesTheKeyWhenTheWorkThrows() {
+        FakeDatabase db = new FakeDatabase(call -> null);
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertThrows(IllegalStateException.class, () -> store.execute("PAY:k1", () -> {
+            throw new IllegalStateException("gateway unreachable");
+        }, KEEP_SUCCESS));
+        assertEquals(1, store.getReleasedCount());
+    }
+
+    @Test
+    void replaysAReplyStoredByAnotherInstance() throws Exception {
+        store = new IdempotencyStore("test", existingRow("DONE", 1000).dataSource());
+
+        assertEquals("SUCCESS:stored", run("PAY:k1", "SUCCESS:1").getContent());
+        assertEquals(0, runs.get());
+        assertEquals(1, store.getReplayedFromDatabaseCount());
+    }
+
+    @Test
+    void refusesAKeyHeldByAnotherLiveRequest() {
+        store = new IdempotencyStore("test", existingRow("PENDING", 1000).dataSource());
+
+        assertThrows(IllegalStateException.class, () -> run("PAY:k1", "SUCCESS:1"));
+        assertEquals(0, runs.get());
+        assertEquals(1, store.getRefusedPendingCount());
+    }
+
+    @Test
+    void takesOverAStaleReservation() throws Exception {
+        FakeDatabase db = existingRow("PENDING", IdempotencyStore.PENDING_TIMEOUT_MS + 60000);
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertEquals("SUCCESS:1", run("PAY:k1", "SUCCESS:1").getContent());
+        assertEquals(1, runs.get());
+        assertEquals(1, store.getTakenOverCount());
+        assertEquals(1, db.count(call -> is(call, "executeUpdate", "UPDATE idempotency_keys SET created_at")));
+    }
+
+    @Test
+    void refusesAStaleReservationAnotherRetryTookOver() {
+        FakeDatabase db = new FakeDatabase(call -> {
+            if (is(call, "executeUpdate", "INSERT")) {
+                throw FakeDatabase.duplicateKey();
+            }
+            if (call.method.equals("executeQuery")) {
+                return FakeDatabase.row("status", "PENDING", "created_at",
+                        new Timestamp(System.currentTimeMillis() - IdempotencyStore.PENDING_TIMEOUT_MS - 60000));
+            }
+            if (is(call, "executeUpdate", "UPDATE idempotency_keys SET created_at")) {
+                return 0;
+            }
+            return null;
+        });
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertThrows(IllegalStateException.class, () -> run("PAY:k1", "SUCCESS:1"));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void keepsAReplyWhoseUpdateFailedAndRetriesIt() throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        FakeDatabase db = new FakeDatabase(call -> {
+            if (is(call, "executeUpdate", "UPDATE idempotency_keys SET status") && down.get()) {
+                throw new SQLException("Communications link failure");
+            }
+            return null;
+        });
+        store = new IdempotencyStore("test", db.dataSource());
+
+        assertEquals("SUCCESS:1", run("PAY:k1", "SUCCESS:1").getContent());
+        assertEquals(1, store.getUnsettledCount());
+        assertEquals(0, db.count(call -> is(call, "executeUpdate", "DELETE")));
+        assertEquals("SUCCESS:1", run("PAY:k1", "SUCCESS:2").getContent());
+
+        down.set(false);
+        store.settle();
+        assertEquals(0, store.getUnsettledCount());
+        assertEquals(1, store.getStoredCount());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void concurrentDuplicatesWaitForTheFirstRequest() throws Exception {
+        store = new IdempotencyStore("test", new FakeDatabase(call -> null).dataSource());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<IdempotencyStore.Reply> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return store.execute("PAY:k1", () -> {
+                    started.countDown();
+                    release.await();
+                    return new IdempotencyStore.Reply(INFORM, "SUCCESS:1");
+                }, KEEP_SUCCESS);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<IdempotencyStore.Reply> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return run("PAY:k1", "SUCCESS:2");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (store.getJoinedInFlightCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals("SUCCESS:1", first.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals("SUCCESS:1", second.get(5, TimeUnit.SECONDS).getContent());
+        assertEquals(0, runs.get());
+    }
+}
@@ -0,0 +1,200 @@
+package messaging;
+
+import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CommandDispatcherTest {
+    private final TestAgent agent = new TestAgent();
+    private CommandDispatcher dispatcher;
+
+    private final BlockingQueue<ACLMessage> sent = new LinkedBlockingQueue<>();
+    private final AtomicInteger sendFailures = new AtomicInteger();
+
+    // An agent outside any platform; the dispatcher's replies are captured instead of sent
+    private static class TestAgent extends Agent {
+        private static final long serialVersionUID = 1L;
+
+        void request(String content) {
+            ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+            msg.setContent(content);
+            postMessage(msg);
+        }
+
+    }
+
+    private CommandDispatcher dispatcher(CommandDispatcher.Mode mode, int maxInFlight, int maxQueueDepth) {
+        return new CommandDispatcher(agent, Commands.PAYMENT_CODEC, mode, maxInFlight, maxQueueDepth) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            void send(ACLMessage reply) {
+                if (sendFailures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("send failed");
+                }
+                sent.add(reply);
+            }
+        };
+    }
+
+    private ACLMessage nextReply() throws InterruptedException {
+        ACLMessage reply = sent.poll(5, TimeUnit.SECONDS);
+        assertNotNull(reply, "no reply");
+        return reply;
+    }
+
+    @AfterEach
+    void close() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    private static String verify(int paymentId, int bookingId) {
+        return Commands.PAYMENT_CODEC.encode(Commands.VERIFY_PAYMENT, paymentId, bookingId);
+    }
+
+    @Test
+    void routesToTheHandlerAndReplies() throws Exception {
+        dispatcher = dispatcher(CommandDispatcher.Mode.SYNC, 4, 100)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> {
+                    reply.setPerformative(ACLMessage.INFORM);
+                    reply.setContent("VERIFIED:" + request.getInt("paymentId"));
+                });
+        agent.request(verify(7, 42));
+        dispatcher.action();
+
+        ACLMessage reply = nextReply();
+        assertEquals(ACLMessage.INFORM, reply.getPerformative());
+        assertEquals("VERIFIED:7", reply.getContent());
+        assertNotNull(reply.getConversationId());
+    }
+
+    @Test
+    void answersUnknownContentWithNotUnderstood() throws Exception {
+        dispatcher = dispatcher(CommandDispatcher.Mode.SYNC, 4, 100);
+        agent.request("v1:NO_SUCH_COMMAND");
+        dispatcher.action();
+
+        assertEquals(ACLMessage.NOT_UNDERSTOOD, nextReply().getPerformative());
+        assertEquals(1, dispatcher.getNotUnderstoodCount());
+    }
+
+    @Test
+    void turnsHandlerExceptionsIntoFailures() throws Exception {
+        dispatcher = dispatcher(CommandDispatcher.Mode.ASYNC, 4, 100)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> {
+                    throw new IllegalStateException("database down");
+                });
+        agent.request(verify(7, 42));
+        dispatcher.action();
+
+        ACLMessage reply = nextReply();
+        assertEquals(ACLMessage.FAILURE, reply.getPerformative());
+        assertEquals("ERROR: database down", reply.getContent());
+    }
+
+    @Test
+    void runsRequestsForTheSameKeyInOrder() throws Exception {
+        StringBuffer order = new StringBuffer();
+        dispatcher = dispatcher(CommandDispatcher.Mode.ASYNC, 8, 100)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> {
+                    Thread.sleep(5);
+                    order.append(request.getInt("paymentId")).append(',');
+                    reply.setPerformative(ACLMessage.INFORM);
+                })
+                .orderedBy("bookingId");
+        for (int i = 0; i < 5; i++) {
+            agent.request(verify(i, 42));
+            dispatcher.action();
+        }
+        for (int i = 0; i < 5; i++) {
+            nextReply();
+        }
+
+        assertEquals("0,1,2,3,4,", order.toString());
+    }
+
+    @Test
+    void runsAnOrderedRequestAfterThePreviousOneFailed() throws Exception {
+        dispatcher = dispatcher(CommandDispatcher.Mode.ASYNC, 1, 100)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> reply.setPerformative(ACLMessage.INFORM))
+                .orderedBy("bookingId");
+        // The first reply cannot be sent, so its task ends exceptionally
+        sendFailures.set(1);
+        agent.request(verify(1, 42));
+        dispatcher.action();
+        agent.request(verify(2, 42));
+        awaitPermit();
+        dispatcher.action();
+
+        assertEquals(ACLMessage.INFORM, nextReply().getPerformative());
+    }
+
+    @Test
+    void failsAnOrderedRequestRejectedAtShutdownAndFreesItsPermit() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher = dispatcher(CommandDispatcher.Mode.ASYNC, 2, 100)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> {
+                    release.await();
+                    reply.setPerformative(ACLMessage.INFORM);
+                })
+                .orderedBy("bookingId");
+        agent.request(verify(1, 42));
+        dispatcher.action();
+        agent.request(verify(2, 42));
+        dispatcher.action();
+
+        // Shut down while the second request waits behind the first
+        Thread closer = new Thread(dispatcher::close);
+        closer.start();
+        while (closer.getState() != Thread.State.TIMED_WAITING && closer.isAlive()) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        closer.join();
+
+        assertEquals(ACLMessage.INFORM, nextReply().getPerformative());
+        ACLMessage rejected = nextReply();
+        assertEquals(ACLMessage.FAILURE, rejected.getPerformative());
+        assertEquals("ERROR: agent is shutting down", rejected.getContent());
+        assertEquals(0, dispatcher.getInFlightCount());
+    }
+
+    @Test
+    void refusesTheExcessOverTheQueueLimit() throws Exception {
+        dispatcher = dispatcher(CommandDispatcher.Mode.SYNC, 4, 2)
+                .on(Commands.VERIFY_PAYMENT, (request, reply) -> reply.setPerformative(ACLMessage.INFORM));
+        for (int i = 0; i < 5; i++) {
+            agent.request(verify(i, 42));
+        }
+        dispatcher.action();
+
+        for (int i = 0; i < 3; i++) {
+            ACLMessage refused = nextReply();
+            assertEquals(ACLMessage.REFUSE, refused.getPerformative());
+            assertTrue(refused.getContent().startsWith(CommandDispatcher.RETRY_AFTER + ":"));
+            assertNotNull(refused.getUserDefinedParameter(CommandDispatcher.RETRY_AFTER_PARAM));
+        }
+        assertEquals(ACLMessage.INFORM, nextReply().getPerformative());
+        assertEquals(3, dispatcher.getRefusedCount());
+    }
+
+    private void awaitPermit() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dispatcher.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package messaging;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageCodecTest {
+
+    // Every command of every codec, with and without its optional fields
+    static Stream<Arguments> commands() {
+        return Stream.of(
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_PAYMENT, new Object[]{125.5, 42}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_PAYMENT, new Object[]{125.5, 42, "key-1"}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.VERIFY_PAYMENT, new Object[]{7}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.VERIFY_PAYMENT, new Object[]{7, 42}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_REFUND, new Object[]{7}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_REFUND, new Object[]{7, "key-2"}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_REFUND, new Object[]{7, null, 42}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.PROCESS_REFUND, new Object[]{7, "key-2", 42}),
+                Arguments.of("payment", Commands.PAYMENT_CODEC, Commands.ATTACH_GUI, new Object[]{}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.PROCESS_PAYMENT, new Object[]{99.0, "stripe"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.PROCESS_PAYMENT,
+                        new Object[]{99.0, Commands.ANY_GATEWAY, "key-3"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.REFUND_PAYMENT, new Object[]{"TX-1"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.REFUND_PAYMENT, new Object[]{"TX-1", "key-4"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.DRAIN_GATEWAY, new Object[]{"paypal"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.RESUME_GATEWAY, new Object[]{"paypal"}),
+                Arguments.of("gateway", Commands.GATEWAY_CODEC, Commands.ATTACH_GUI, new Object[]{}),
+                Arguments.of("registration", Commands.REGISTRATION_CODEC, Commands.REGISTER_CUSTOMER,
+                        new Object[]{"Ada Lovelace", "ada@example.com", "4035550100", "secret1"}),
+                Arguments.of("registration", Commands.REGISTRATION_CODEC, Commands.UPDATE_CUSTOMER,
+                        new Object[]{3, "Ada King", "4035550101"}),
+                Arguments.of("registration", Commands.REGISTRATION_CODEC, Commands.DEREGISTER_CUSTOMER, new Object[]{3}),
+                Arguments.of("registration", Commands.REGISTRATION_CODEC, Commands.ATTACH_GUI, new Object[]{}));
+    }
+
+    @ParameterizedTest(name = "{0} {2} {3}")
+    @MethodSource("commands")
+    void roundTripsEveryCommand(String agent, MessageCodec codec, String command, Object[] values) {
+        String encoded = codec.encode(command, values);
+        assertTrue(encoded.startsWith(MessageCodec.VERSION + ":" + command));
+
+        Message decoded = codec.decode(encoded);
+        assertEquals(command, decoded.getCommand());
+        List<CommandSchema.Field> fields = decoded.getSchema().getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            String name = fields.get(i).getName();
+            if (i < values.length && values[i] != null) {
+                assertEquals(String.valueOf(values[i]), decoded.getString(name), name);
+            } else {
+                assertFalse(decoded.has(name), name);
+                assertNull(decoded.getString(name), name);
+            }
+        }
+        assertEquals(encoded, MessageCodec.encode(decoded));
+    }
+
+    @ParameterizedTest(name = "{0} {2} {3}")
+    @MethodSource("commands")
+    void decodesEveryCommandWithoutVersion(String agent, MessageCodec codec, String command, Object[] values) {
+        String legacy = codec.encode(command, values).substring(MessageCodec.VERSION.length() + 1);
+
+        assertEquals(codec.encode(command, values), MessageCodec.encode(codec.decode(legacy)));
+    }
+
+    @Test
+    void escapesSeparatorAndEscapeCharacters() {
+        String name = "a:b\\c";
+        String password = "p:\\:";
+        String encoded = Commands.REGISTRATION_CODEC.encode(Commands.REGISTER_CUSTOMER,
+                name, "x@example.com", "4035550100", password);
+
+        assertEquals("v1:REGISTER_CUSTOMER:a\\:b\\\\c:x@example.com:4035550100:p\\:\\\\\\:", encoded);
+        Message decoded = Commands.REGISTRATION_CODEC.decode(encoded);
+        assertEquals(name, decoded.getString("name"));
+        assertEquals(password, decoded.getString("password"));
+    }
+
+    @Test
+    void escapedIdempotencyKeyStaysOneField() {
+        String encoded = Commands.PAYMENT_CODEC.encode(Commands.PROCESS_PAYMENT, 10.0, 5, "booking:5:try\\1");
+
+        Message decoded = Commands.PAYMENT_CODEC.decode(encoded);
+        assertEquals("booking:5:try\\1", decoded.getString(Commands.IDEMPOTENCY_KEY));
+    }
+
+    @Test
+    void decodesLegacyUnversionedContent() {
+        Message payment = Commands.PAYMENT_CODEC.decode("PROCESS_PAYMENT:150.0:12");
+        assertEquals(150.0, payment.getDouble("amount"));
+        assertEquals(12, payment.getInt("bookingId"));
+        assertFalse(payment.has(Commands.IDEMPOTENCY_KEY));
+
+        Message registration = Commands.REGISTRATION_CODEC.decode("REGISTER_CUSTOMER:Bob:bob@example.com:4035550102:pw1234");
+        assertEquals("bob@example.com", registration.getString("email"));
+    }
+
+    @Test
+    void decodesVerifyAndRefundWithoutBookingId() {
+        MessageCodec codec = Commands.PAYMENT_CODEC;
+        Message verify = codec.decode("VERIFY_PAYMENT:7");
+        assertEquals(7, verify.getInt("paymentId"));
+        assertFalse(verify.has("bookingId"));
+
+        Message refund = codec.decode("PROCESS_REFUND:7:key-1");
+        assertEquals("key-1", refund.getString(Commands.IDEMPOTENCY_KEY));
+        assertFalse(refund.has("bookingId"));
+
+        // A skipped key is written empty so the bookingId keeps its place
+        String encoded = codec.encode(Commands.PROCESS_REFUND, 7, null, 42);
+        assertEquals("v1:PROCESS_REFUND:7::42", encoded);
+        assertFalse(codec.decode(encoded).has(Commands.IDEMPOTENCY_KEY));
+        assertEquals(42, codec.decode(encoded).getInt("bookingId"));
+    }
+
+    @Test
+    void rejectsMalformedContent() {
+        MessageCodec codec = Commands.PAYMENT_CODEC;
+        assertThrows(MessageFormatException.class, () -> codec.decode(null));
+        assertThrows(MessageFormatException.class, () -> codec.decode(""));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v2:PROCESS_PAYMENT:10.0:1"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:NO_SUCH_COMMAND"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:10.0"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:10.0:1:k:extra"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:ten:1"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:NaN:1"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:10.0:one"));
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:PROCESS_PAYMENT:10.0:1\\"));
+        // A command of another agent's codec
+        assertThrows(MessageFormatException.class, () -> codec.decode("v1:REFUND_PAYMENT:TX-1"));
+    }
+
+    @Test
+    void rejectsBadValuesOnCreate() {
+        MessageCodec codec = Commands.PAYMENT_CODEC;
+        assertThrows(MessageFormatException.class, () -> codec.create(Commands.PROCESS_PAYMENT, 10.0));
+        assertThrows(MessageFormatException.class, () -> codec.create(Commands.PROCESS_PAYMENT, 10, 1));
+        assertThrows(MessageFormatException.class, () -> codec.create(Commands.PROCESS_PAYMENT, null, 1));
+        assertThrows(MessageFormatException.class, () -> codec.create("NO_SUCH_COMMAND"));
+        assertThrows(MessageFormatException.class,
+                () -> codec.createWithItems(Commands.PROCESS_PAYMENT, Collections.emptyList()));
+    }
+
+    @Test
+    void roundTripsBatchItems() {
+        List<Object[]> items = new ArrayList<>();
+        items.add(new Object[]{10.0, 1});
+        items.add(new Object[]{20.5, 2});
+        String encoded = MessageCodec.encode(
+                Commands.PAYMENT_CODEC.createWithItems(Commands.PROCESS_PAYMENT_BATCH, items));
+        assertEquals("v1:PROCESS_PAYMENT_BATCH:10.0:1:20.5:2", encoded);
+
+        Message decoded = Commands.PAYMENT_CODEC.decode(encoded);
+        assertEquals(2, decoded.getItems().size());
+        assertEquals(20.5, decoded.getItems().get(1).getDouble("amount"));
+        assertEquals(2, decoded.getItems().get(1).getInt("bookingId"));
+
+        Message gatewayBatch = Commands.GATEWAY_CODEC.decode("PROCESS_PAYMENT_BATCH:10.0:a\\:b:5.0:*");
+        assertEquals("a:b", gatewayBatch.getItems().get(0).getString("gatewayId"));
+        assertEquals(Commands.ANY_GATEWAY, gatewayBatch.getItems().get(1).getString("gatewayId"));
+    }
+
+    @Test
+    void rejectsIncompleteBatchItem() {
+        assertThrows(MessageFormatException.class,
+                () -> Commands.PAYMENT_CODEC.decode("v1:PROCESS_PAYMENT_BATCH:10.0:1:20.5"));
+    }
+
+    @Test
+    void capsBatchAtMaxItems() {
+        List<Object[]> items = new ArrayList<>();
+        StringBuilder content = new StringBuilder("v1:PROCESS_PAYMENT_BATCH");
+        for (int i = 0; i < Commands.BATCH_MAX_ITEMS; i++) {
+            items.add(new Object[]{1.0, i});
+            content.append(":1.0:").append(i);
+        }
+
+        assertEquals(Commands.BATCH_MAX_ITEMS,
+                Commands.PAYMENT_CODEC.decode(content.toString()).getItems().size());
+        assertEquals(Commands.BATCH_MAX_ITEMS,
+                Commands.PAYMENT_CODEC.createWithItems(Commands.PROCESS_PAYMENT_BATCH, items).getItems().size());
+
+        items.add(new Object[]{1.0, -1});
+        content.append(":1.0:-1");
+        assertThrows(MessageFormatException.class, () -> Commands.PAYMENT_CODEC.decode(content.toString()));
+        assertThrows(MessageFormatException.class,
+                () -> Commands.PAYMENT_CODEC.createWithItems(Commands.PROCESS_PAYMENT_BATCH, items));
+    }
+
+    @Test
+    void formatsBatchResult() {
+        List<String> results = new ArrayList<>();
+        results.add(Commands.ITEM_SUCCESS);
+        results.add(Commands.ITEM_FAILED);
+        results.add("TX-9");
+
+        assertEquals("PAYMENT_BATCH_RESULT:2:3:SUCCESS:FAILED:TX-9", Commands.formatBatchResult(results));
+    }
+}
@@ -0,0 +1,45 @@
+package messaging;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.lang.acl.ACLMessage;
+import org.junit.jupiter.api.Test;
+import utils.Histogram;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestClientTest {
+    // Outside any platform the agent's sends go nowhere, so only the client's own bookkeeping runs
+    private final Agent agent = new Agent();
+    private final RequestClient client = new RequestClient(agent, 10);
+    private final AID receiver = new AID("PaymentAgent-0@test", AID.ISGUID);
+
+    private static Message verify(int paymentId) {
+        return Commands.PAYMENT_CODEC.create(Commands.VERIFY_PAYMENT, paymentId);
+    }
+
+    @Test
+    void recordsATimedOutRequestAtItsTimeout() throws InterruptedException {
+        CompletableFuture<ACLMessage> future = client.request(receiver, verify(1), 50);
+
+        ExecutionException error = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(TimeoutException.class, error.getCause());
+        // The bookkeeping runs right after the future times out
+        Histogram latency = client.getLatency(Commands.VERIFY_PAYMENT);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (latency.getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, client.getTimeoutCount());
+        assertEquals(0, client.getOutstandingCount());
+        assertEquals(1, latency.getCount());
+        assertTrue(latency.getMax() >= 50_000, "max " + latency.getMax());
+    }
+}
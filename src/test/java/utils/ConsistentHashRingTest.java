@@ -0,0 +1,82 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConsistentHashRingTest {
+    private static final int KEYS = 20000;
+
+    private static Map<String, String> nodes(int count) {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            nodes.put("shard-" + i, "shard-" + i);
+        }
+        return nodes;
+    }
+
+    @Test
+    void emptyRingHasNoNode() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(new HashMap<>(), 100);
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.nodeFor(1));
+    }
+
+    @Test
+    void sameKeyAlwaysMapsToSameNode() {
+        ConsistentHashRing<String> first = new ConsistentHashRing<>(nodes(4), 100);
+        ConsistentHashRing<String> second = new ConsistentHashRing<>(nodes(4), 100);
+
+        for (long key = 0; key < 1000; key++) {
+            assertEquals(first.nodeFor(key), second.nodeFor(key));
+        }
+    }
+
+    @Test
+    void spreadsSequentialKeysEvenly() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(4), 100);
+        Map<String, Integer> counts = new HashMap<>();
+        for (long key = 0; key < KEYS; key++) {
+            counts.merge(ring.nodeFor(key), 1, Integer::sum);
+        }
+
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // A quarter each, give or take a third
+            assertTrue(count > KEYS / 4 * 2 / 3 && count < KEYS / 4 * 4 / 3, counts.toString());
+        }
+    }
+
+    @Test
+    void addingANodeOnlyMovesKeysToIt() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(nodes(4), 100);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(nodes(5), 100);
+
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            String from = before.nodeFor(key);
+            String to = after.nodeFor(key);
+            if (!from.equals(to)) {
+                assertEquals("shard-4", to);
+                moved++;
+            }
+        }
+        // About 1/5 of the keys
+        assertTrue(moved > KEYS / 10 && moved < KEYS * 3 / 10, "moved " + moved);
+    }
+
+    @Test
+    void listsItsNodes() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(nodes(3), 10);
+
+        assertEquals(3, ring.getNodes().size());
+        assertTrue(ring.getNodes().contains("shard-2"));
+    }
+}
@@ -0,0 +1,61 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmailIndexTest {
+
+    @Test
+    void reportsEverythingAsPossibleUntilReady() {
+        EmailIndex index = new EmailIndex(1000, 0.01);
+
+        assertFalse(index.isReady());
+        assertTrue(index.mightContain("new@example.com"));
+        assertEquals(1, index.getMaybePresentCount());
+    }
+
+    @Test
+    void neverMissesAnAddedAddress() {
+        EmailIndex index = new EmailIndex(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            index.add("user" + i + "@example.com");
+        }
+        index.markReady();
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(index.mightContain("user" + i + "@example.com"));
+        }
+        assertEquals(1000, index.getEntryCount());
+    }
+
+    @Test
+    void ignoresCaseAndSurroundingWhitespace() {
+        EmailIndex index = new EmailIndex(1000, 0.01);
+        index.add("Ada@Example.com");
+        index.markReady();
+
+        assertTrue(index.mightContain("  ada@example.COM "));
+    }
+
+    @Test
+    void keepsFalsePositivesNearTheConfiguredRate() {
+        EmailIndex index = new EmailIndex(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            index.add("user" + i + "@example.com");
+        }
+        index.markReady();
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (index.mightContain("other" + i + "@example.org")) {
+                falsePositives++;
+            }
+        }
+        // 1% expected; allow for hashing noise
+        assertTrue(falsePositives < 300, falsePositives + " false positives");
+        assertEquals(10000 - falsePositives, index.getDefinitelyNewCount());
+    }
+}
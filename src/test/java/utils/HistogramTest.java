@@ -0,0 +1,63 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram("test");
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0.0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    void tracksCountMeanAndMax() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(30);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(20.0, histogram.getMean());
+        assertEquals(30, histogram.getMax());
+    }
+
+    @Test
+    void reportsPercentilesAsBucketUpperBounds() {
+        Histogram histogram = new Histogram("test");
+        // 90 values in [64, 128), 10 in [1024, 2048)
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1500);
+        }
+
+        assertEquals(127, histogram.getPercentile(50));
+        assertEquals(127, histogram.getPercentile(90));
+        assertEquals(1500, histogram.getPercentile(95));
+    }
+
+    @Test
+    void percentileNeverExceedsMax() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(70);
+
+        assertEquals(70, histogram.getPercentile(100));
+    }
+
+    @Test
+    void recordsNegativeValuesAsZero() {
+        Histogram histogram = new Histogram("test");
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,81 @@
+package utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PasswordHasherTest {
+    // Low iteration count keeps the tests fast; the format and checks are the same
+    private final PasswordHasher hasher = new PasswordHasher(1000, 2, 16);
+
+    @AfterEach
+    void close() {
+        hasher.close();
+    }
+
+    @Test
+    void storesIterationsSaltAndHash() {
+        String[] parts = hasher.hash("secret1").split("\\$");
+
+        assertEquals(4, parts.length);
+        assertEquals("pbkdf2", parts[0]);
+        assertEquals("1000", parts[1]);
+        assertEquals(32, parts[2].length());
+        assertEquals(64, parts[3].length());
+    }
+
+    @Test
+    void verifiesOnlyTheRightPassword() {
+        String stored = hasher.hash("secret1");
+
+        assertTrue(hasher.verify("secret1", stored));
+        assertFalse(hasher.verify("secret2", stored));
+    }
+
+    @Test
+    void saltsEveryHash() {
+        assertNotEquals(hasher.hash("secret1"), hasher.hash("secret1"));
+    }
+
+    @Test
+    void verifiesHashesMadeWithOtherIterationCounts() {
+        PasswordHasher stronger = new PasswordHasher(2000, 1, 1);
+        try {
+            assertTrue(hasher.verify("secret1", stronger.hash("secret1")));
+        } finally {
+            stronger.close();
+        }
+    }
+
+    @Test
+    void rejectsUnsaltedOrMissingHashes() {
+        assertFalse(hasher.verify("secret1", "5e884898da28047151d0e56f8dc6292773603d0d6aabbdd62a11ef721d1542d8"));
+        assertFalse(hasher.verify("secret1", null));
+    }
+
+    @Test
+    void rejectsWorkOnceTheQueueIsFull() {
+        PasswordHasher small = new PasswordHasher(500_000, 1, 1);
+        List<CompletableFuture<String>> accepted = new ArrayList<>();
+        try {
+            assertThrows(RejectedExecutionException.class, () -> {
+                for (int i = 0; i < 3; i++) {
+                    accepted.add(small.hashAsync("secret1"));
+                }
+            });
+            assertEquals(1, small.getRejectedCount());
+        } finally {
+            small.close();
+        }
+    }
+}
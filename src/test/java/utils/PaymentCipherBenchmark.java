@@ -0,0 +1,171 @@
+package utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Before/after comparison for payment encryption, not run by the test suite:
+//
+//   mvn -B test-compile
+//   java -cp target/classes:target/test-classes utils.PaymentCipherBenchmark [payments] [threads]
+//
+// Encrypts the same payment strings with
+//   per-call      Cipher.getInstance for every payment, as GatewayAgent did originally
+//   thread-local  one Cipher and SecureRandom per thread, the first PaymentCipher
+//   pooled        PaymentCipher as it is now
+// once from a fixed pool of platform threads and once from a virtual thread per payment, the
+// way the agents' WorkerExecutors run handlers. Prints payments per second and how many Cipher
+// instances each strategy created. The first round of each is a warm-up and not reported.
+public class PaymentCipherBenchmark {
+    private static final String PAYMENT = "Transaction{id=null, amount=125.5, gatewayId=stripe, status=null}";
+
+    interface Strategy {
+        String encrypt(String plaintext) throws Exception;
+
+        long ciphersCreated();
+    }
+
+    static class PerCall implements Strategy {
+        private final SecretKey key;
+        private final SecureRandom random = new SecureRandom();
+        private long created;
+
+        PerCall(SecretKey key) {
+            this.key = key;
+        }
+
+        @Override
+        public String encrypt(String plaintext) throws Exception {
+            byte[] nonce = new byte[12];
+            random.nextBytes(nonce);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            synchronized (this) {
+                created++;
+            }
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, nonce));
+            return Base64.getEncoder().encodeToString(cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public synchronized long ciphersCreated() { return created; }
+    }
+
+    static class ThreadLocalCiphers implements Strategy {
+        private final SecretKey key;
+        private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(this::newCipher);
+        private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+        private long created;
+
+        ThreadLocalCiphers(SecretKey key) {
+            this.key = key;
+        }
+
+        private Cipher newCipher() {
+            try {
+                synchronized (this) {
+                    created++;
+                }
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String encrypt(String plaintext) throws Exception {
+            byte[] nonce = new byte[12];
+            random.get().nextBytes(nonce);
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, nonce));
+            return Base64.getEncoder().encodeToString(cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        @Override
+        public synchronized long ciphersCreated() { return created; }
+    }
+
+    static class Pooled implements Strategy {
+        private final PaymentCipher cipher;
+
+        Pooled(SecretKey key) {
+            cipher = new PaymentCipher(new KeyProvider() {
+                @Override
+                public String currentKeyId() { return "k1"; }
+
+                @Override
+                public SecretKey currentKey() { return key; }
+
+                @Override
+                public SecretKey key(String keyId) { return key; }
+            });
+        }
+
+        @Override
+        public String encrypt(String plaintext) throws Exception {
+            return cipher.encrypt(plaintext);
+        }
+
+        @Override
+        public long ciphersCreated() { return cipher.getCreatedCount(); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        SecretKey key = new SecretKeySpec(new SecureRandom().generateSeed(16), "AES");
+
+        boolean virtual;
+        try {
+            virtual = WorkerExecutors.VIRTUAL_THREADS && Thread.class.getMethod("ofVirtual") != null;
+        } catch (NoSuchMethodException e) {
+            virtual = false;
+        }
+        // Without virtual threads WorkerExecutors falls back to platform threads as well
+        System.out.printf("%d payments, %d platform threads, virtual threads %s%n", payments, threads,
+                virtual ? "available" : "not available, the second half repeats the first");
+        System.out.printf("%-14s %-9s %12s %10s%n", "strategy", "threads", "payments/s", "ciphers");
+        for (String executor : new String[]{"platform", "virtual"}) {
+            run("per-call", executor, new PerCall(key), payments, threads);
+            run("thread-local", executor, new ThreadLocalCiphers(key), payments, threads);
+            run("pooled", executor, new Pooled(key), payments, threads);
+        }
+    }
+
+    private static void run(String name, String executor, Strategy strategy, int payments, int threads)
+            throws Exception {
+        encryptAll(executor, strategy, payments / 10, threads);
+        long start = System.nanoTime();
+        encryptAll(executor, strategy, payments, threads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-14s %-9s %12.0f %10d%n", name, executor, payments / seconds, strategy.ciphersCreated());
+    }
+
+    // One task per payment, as the dispatcher submits one task per request
+    private static void encryptAll(String executor, Strategy strategy, int payments, int threads) throws Exception {
+        ExecutorService workers = executor.equals("virtual")
+                ? WorkerExecutors.newExecutor("bench", threads)
+                : Executors.newFixedThreadPool(threads, new DaemonThreadFactory("bench"));
+        try {
+            List<Future<String>> results = new ArrayList<>(payments);
+            for (int i = 0; i < payments; i++) {
+                results.add(workers.submit(() -> strategy.encrypt(PAYMENT)));
+            }
+            for (Future<String> result : results) {
+                result.get();
+            }
+        } finally {
+            workers.shutdown();
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
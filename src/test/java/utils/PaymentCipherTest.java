@@ -0,0 +1,70 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentCipherTest {
+    private final PaymentCipher cipher = new PaymentCipher(new PropertyKeyProvider(), 2);
+
+    @Test
+    void decryptsWhatItEncrypted() throws GeneralSecurityException {
+        String encrypted = cipher.encrypt("card=4111111111111111");
+
+        assertTrue(encrypted.startsWith("k1:"));
+        assertEquals("card=4111111111111111", cipher.decrypt(encrypted));
+    }
+
+    @Test
+    void usesAFreshNonceForEveryMessage() throws GeneralSecurityException {
+        assertNotEquals(cipher.encrypt("same"), cipher.encrypt("same"));
+    }
+
+    @Test
+    void rejectsTamperedOrUnknownCiphertexts() throws GeneralSecurityException {
+        String encrypted = cipher.encrypt("amount=10");
+        // Flip one ciphertext byte; editing a Base64 character could touch only padding bits
+        byte[] data = Base64.getDecoder().decode(encrypted.substring(3));
+        data[data.length / 2] ^= 1;
+        String tampered = "k1:" + Base64.getEncoder().encodeToString(data);
+
+        assertThrows(GeneralSecurityException.class, () -> cipher.decrypt(tampered));
+        assertThrows(GeneralSecurityException.class, () -> cipher.decrypt("k9:" + encrypted.substring(3)));
+        assertThrows(GeneralSecurityException.class, () -> cipher.decrypt("no key id"));
+        // The cipher that failed went back to the pool and still works
+        assertEquals("amount=10", cipher.decrypt(encrypted));
+    }
+
+    @Test
+    void reusesPooledCiphersAcrossThreads() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String plaintext = "payment-" + i;
+                results.add(threads.submit(() -> cipher.decrypt(cipher.encrypt(plaintext))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("payment-" + i, results.get(i).get());
+            }
+        } finally {
+            threads.shutdown();
+        }
+
+        assertEquals(2000, cipher.getEncryptionCount());
+        assertTrue(cipher.getIdleCount() <= 2);
+        // Far fewer than one per call: only calls that found the pool empty created one
+        assertTrue(cipher.getCreatedCount() < 2000);
+    }
+}
@@ -0,0 +1,71 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @ParameterizedTest(name = "attempt {0} {1} -> {2}")
+    @CsvSource({
+            "1, ERROR, true",
+            "1, TIMEOUT, true",
+            "1, OK, false",
+            "1, DECLINED, false",
+            "2, ERROR, true",
+            "3, ERROR, false",
+            "3, TIMEOUT, false"
+    })
+    void retriesOnlyErrorsAndTimeoutsWithinMaxAttempts(int attempt, GatewayClient.Outcome outcome, boolean retry) {
+        RetryPolicy policy = new RetryPolicy(3, 10, 1000);
+
+        assertEquals(retry, policy.shouldRetry(attempt, outcome));
+    }
+
+    @Test
+    void backoffStaysWithinTheExponentialCeiling() {
+        RetryPolicy policy = new RetryPolicy(10, 10, 1000);
+        for (int retry = 1; retry <= 10; retry++) {
+            long ceiling = Math.min(1000, 10L << (retry - 1));
+            for (int i = 0; i < 200; i++) {
+                long backoff = policy.backoffMs(retry);
+                assertTrue(backoff >= 0 && backoff <= ceiling, "retry " + retry + ": " + backoff);
+            }
+        }
+    }
+
+    @Test
+    void backoffIsJittered() {
+        RetryPolicy policy = new RetryPolicy(3, 1000, 1000);
+        long first = policy.backoffMs(1);
+        boolean varied = false;
+        for (int i = 0; i < 50 && !varied; i++) {
+            varied = policy.backoffMs(1) != first;
+        }
+
+        assertTrue(varied);
+    }
+
+    @Test
+    void largeRetryNumbersDoNotOverflow() {
+        RetryPolicy policy = new RetryPolicy(100, 10, 5000);
+
+        assertTrue(policy.backoffMs(80) <= 5000);
+    }
+
+    @Test
+    void zeroBaseDelayMeansNoBackoff() {
+        RetryPolicy policy = new RetryPolicy(3, 0, 1000);
+
+        assertEquals(0, policy.backoffMs(1));
+        assertTrue(policy.backoff(2));
+    }
+
+    @Test
+    void atLeastOneAttempt() {
+        assertEquals(1, new RetryPolicy(0, 10, 100).getMaxAttempts());
+    }
+}
@@ -0,0 +1,119 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Startup-time comparison of the two run modes, not run by the test suite:
+//
+//   mvn -B test-compile
+//   java -cp target/classes:target/test-classes:<jade and mysql jars> utils.StartupBenchmark [runs]
+//
+// Starts the application in a fresh JVM, runs times with --headless and runs times without,
+// and reads the "<agent> started in <n> ms (<mode>)" lines RunMode.logStartup writes. A run
+// ends once no agent has started for two seconds. Prints each agent's mean setup() time per
+// mode and the mean time from JVM launch until the last agent had started. Without a display
+// the GUI runs fall back to headless, which the mode column shows.
+public class StartupBenchmark {
+    private static final Pattern STARTED = Pattern.compile("(\\S+) started in ([\\d.]+) ms \\((headless|with GUI)\\)");
+    private static final long QUIET_MS = 2000;
+    private static final long TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+    // Per-agent setup times and the launch-to-last-agent time of one run
+    private static class Run {
+        final Map<String, Double> setupMs = new TreeMap<>();
+        String mode = "-";
+        long allStartedMs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        for (boolean headless : new boolean[]{true, false}) {
+            List<Run> results = new ArrayList<>();
+            for (int i = 0; i < runs; i++) {
+                results.add(run(headless));
+            }
+            report(headless ? "--headless" : "default", results);
+        }
+    }
+
+    private static Run run(boolean headless) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("CarRentalApplication");
+        if (headless) {
+            command.add(RunMode.HEADLESS_ARG);
+        }
+
+        long launched = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    lines.add(line);
+                }
+            } catch (IOException e) {
+                // The process was stopped
+            }
+        }, "startup-benchmark-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        Run run = new Run();
+        long deadline = launched + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        try {
+            while (System.nanoTime() < deadline) {
+                String line = lines.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    if (!run.setupMs.isEmpty() || !process.isAlive()) {
+                        break;
+                    }
+                    continue;
+                }
+                Matcher matcher = STARTED.matcher(line);
+                if (matcher.find()) {
+                    run.setupMs.put(matcher.group(1), Double.parseDouble(matcher.group(2)));
+                    run.mode = matcher.group(3);
+                    run.allStartedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - launched);
+                }
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+        return run;
+    }
+
+    private static void report(String arguments, List<Run> results) {
+        Map<String, Double> totals = new TreeMap<>();
+        long allStarted = 0;
+        for (Run run : results) {
+            run.setupMs.forEach((agent, ms) -> totals.merge(agent, ms, Double::sum));
+            allStarted += run.allStartedMs;
+        }
+
+        System.out.printf("%s (%s), %d runs%n", arguments, results.get(0).mode, results.size());
+        System.out.printf("  %-24s %12s%n", "agent", "setup ms");
+        for (Map.Entry<String, Double> total : totals.entrySet()) {
+            System.out.printf("  %-24s %12.1f%n", total.getKey(), total.getValue() / results.size());
+        }
+        System.out.printf("  %-24s %12d%n", "launch to all started", allStarted / results.size());
+    }
+}
@@ -0,0 +1,67 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TtlCacheTest {
+
+    @Test
+    void returnsWhatWasPut() {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 60000);
+        cache.put("a", 1);
+
+        assertEquals(1, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 2, 60000);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.get("a"));
+        assertEquals(3, cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void expiresEntriesAfterTheirTtl() throws InterruptedException {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 30);
+        cache.put("a", 1);
+        Thread.sleep(50);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void updateOnlyTouchesLiveEntries() {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 60000);
+        cache.put("a", 1);
+        cache.update("a", v -> v + 1);
+        cache.update("b", v -> 100);
+
+        assertEquals(2, cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    void invalidateRemovesTheEntry() {
+        TtlCache<String, Integer> cache = new TtlCache<>("test", 10, 60000);
+        cache.put("a", 1);
+        cache.invalidate("a");
+
+        assertNull(cache.get("a"));
+    }
+}